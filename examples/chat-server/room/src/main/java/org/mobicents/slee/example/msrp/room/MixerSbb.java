@@ -580,7 +580,9 @@ public abstract class MixerSbb extends BasicSbb implements MixerControlMethods {
 	}
 
 	public void onReportReceived(ReportEvent event, ActivityContextInterface aci) {
-		// TODO: implement
+		if (event.getStatusCode() != 200 && trc.isWarningEnabled())
+			trc.warning("Message " + event.getMessageID() + " not delivered: "
+					+ event.getStatusCode() + " " + event.getComment());
 	}
 
 	public void onConnectionLost(ConnectionLostEvent event, ActivityContextInterface aci) {
@@ -20,8 +20,8 @@
  */
 package javax.net.msrp;
 
-import java.rmi.server.UID;
 import java.util.EventObject;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.net.msrp.Session;
 
@@ -31,23 +31,78 @@ import javax.net.msrp.Session;
  */
 public class BaseEvent extends EventObject {
 	private static final long serialVersionUID = 1L;
+	/** source of an event on a session that could not be created */
+	private static final String NO_SESSION = "no session";
 
 	private int id;
 	private Session session;
 
 	public int hashCode() { return id; }
+	/** @return the session, null if it could not be created */
 	public Session getSession() { return session; }
 
 	public boolean equals(Object o) {
-		if (o != null && o.getClass() == this.getClass())
+		if (o != null && o.getClass() == this.getClass()) {
+			Session other = ((BaseEvent) o).session;
 			return id ==((BaseEvent) o).id &&
-					session.equals(((BaseEvent) o).session);
+					(session == null ? other == null : session.equals(other));
+		}
 		return false;
 	}
 
+	/**
+	 * @param session the session, null if it could not be created
+	 */
 	public BaseEvent(Session session) {
-		super(session);
-		id = (new UID()).hashCode();
+		super(session == null ? NO_SESSION : session);
+		id = Ids.next();
 		this.session = session;
 	}
+
+	/**
+	 * Give a recycled event a new identity.
+	 */
+	void reuse(Session session) {
+		source = session;
+		id = Ids.next();
+		this.session = session;
+	}
+
+	/**
+	 * Drop the references of an event about to be pooled.
+	 */
+	void clear() {
+		source = null;
+		session = null;
+	}
+
+	/**
+	 * Hands out event ids with little contention: each thread draws from one
+	 * of a number of counters, by thread id, each on its own cache line.
+	 * Counter <tt>i</tt> of <tt>n</tt> only hands out ids equal to <tt>i</tt>
+	 * modulo <tt>n</tt>, so the ids of different counters never collide.
+	 * Nothing is kept per thread: the threads of the container never hold
+	 * on to this class, or the class loader it came with.
+	 */
+	private static final class Ids {
+		/** number of counters, a power of 2 */
+		private static final int STRIPES;
+		/** longs per counter: a 64 byte cache line */
+		private static final int PAD = 8;
+
+		static {
+			int stripes = 1;
+			int processors = Runtime.getRuntime().availableProcessors();
+			while (stripes < processors && stripes < 64)
+				stripes <<= 1;
+			STRIPES = stripes;
+		}
+
+		private static final AtomicLongArray counters = new AtomicLongArray(STRIPES * PAD);
+
+		static int next() {
+			int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+			return (int) (counters.getAndIncrement(stripe * PAD) * STRIPES + stripe);
+		}
+	}
 }
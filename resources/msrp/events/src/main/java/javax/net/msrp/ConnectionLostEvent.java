@@ -23,7 +23,9 @@ package javax.net.msrp;
 import javax.net.msrp.Session;
 
 /**
- * Includes a cause on why the connection was lost
+ * Includes a cause on why the connection was lost.
+ * Its session is null when the connection of a secured session could not
+ * be set up at all.
  * @author tuijldert
  */
 @SuppressWarnings("serial")
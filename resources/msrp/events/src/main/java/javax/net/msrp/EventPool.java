@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package javax.net.msrp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Recycles the events fired most often: send progress updates and reports.
+ * <BR>
+ * Meant for the resource adaptor, which hands an event back once the SLEE
+ * no longer references it. A recycled event gets a new identity, so it is
+ * never equal to its former self. At most <tt>capacity</tt> idle events of
+ * each kind are kept, the rest is left to the garbage collector.
+ *
+ * @author tuijldert
+ */
+public final class EventPool {
+	private final ArrayBlockingQueue<UpdateSendEvent> updates;
+	private final ArrayBlockingQueue<ReportEvent> reports;
+
+	/**
+	 * @param capacity max. number of idle events kept, per kind
+	 */
+	public EventPool(int capacity) {
+		updates = new ArrayBlockingQueue<UpdateSendEvent>(capacity);
+		reports = new ArrayBlockingQueue<ReportEvent>(capacity);
+	}
+
+	public UpdateSendEvent updateSendEvent(Session session, Message message, long bytesSent) {
+		UpdateSendEvent event = updates.poll();
+		if (event == null)
+			return new UpdateSendEvent(session, message, bytesSent);
+		return event.reuse(session, message, bytesSent);
+	}
+
+	public ReportEvent reportEvent(Session session, String messageId, int namespace, int statusCode,
+			String comment) {
+		ReportEvent event = reports.poll();
+		if (event == null)
+			return new ReportEvent(session, messageId, namespace, statusCode, comment);
+		return event.reuse(session, messageId, namespace, statusCode, comment);
+	}
+
+	/**
+	 * @param event an event no longer referenced by anyone
+	 * @return whether it was taken back for reuse
+	 */
+	public boolean recycle(Object event) {
+		if (event.getClass() == UpdateSendEvent.class) {
+			UpdateSendEvent update = (UpdateSendEvent) event;
+			update.clear();
+			return updates.offer(update);
+		}
+		if (event.getClass() == ReportEvent.class) {
+			ReportEvent report = (ReportEvent) event;
+			report.clear();
+			return reports.offer(report);
+		}
+		return false;
+	}
+
+	/**
+	 * @param event an event
+	 * @return whether it could be taken back through {@link #recycle(Object)}
+	 */
+	public static boolean isRecyclable(Object event) {
+		return event.getClass() == UpdateSendEvent.class || event.getClass() == ReportEvent.class;
+	}
+}
@@ -24,28 +24,62 @@ import javax.net.msrp.Session;
 import javax.net.msrp.StatusHeader;
 
 /**
- * Includes the status code and possible namespace included in the report.
+ * Includes the status code and possible namespace included in the report,
+ * and the Message-ID of the message reported on.
  * @author tuijldert
  */
 @SuppressWarnings("serial")
 public class ReportEvent extends BaseEvent {
 
-	private StatusHeader status;
+	private String messageId;
+	private int namespace;
+	private int statusCode;
+	private String comment;
 
 	public ReportEvent(Session session, StatusHeader status) {
+		this(session, null, status.getNamespace(), status.getStatusCode(), status.getComment());
+	}
+
+	public ReportEvent(Session session, String messageId, int namespace, int statusCode, String comment) {
 		super(session);
-		this.status = status;
+		this.messageId = messageId;
+		this.namespace = namespace;
+		this.statusCode = statusCode;
+		this.comment = comment;
+	}
+
+	ReportEvent reuse(Session session, String messageId, int namespace, int statusCode, String comment) {
+		reuse(session);
+		this.messageId = messageId;
+		this.namespace = namespace;
+		this.statusCode = statusCode;
+		this.comment = comment;
+		return this;
+	}
+
+	@Override
+	void clear() {
+		super.clear();
+		messageId = null;
+		comment = null;
+	}
+
+	/**
+	 * @return the Message-ID of the message reported on, null if unknown
+	 */
+	public String getMessageID() {
+		return messageId;
 	}
 
 	public int getStatusCode() {
-		return status.getStatusCode();
+		return statusCode;
 	}
 
 	public int getNamespace() {
-		return status.getNamespace();
+		return namespace;
 	}
 
 	public String getComment() {
-		return status.getComment();
+		return comment;
 	}
-}
\ No newline at end of file
+}
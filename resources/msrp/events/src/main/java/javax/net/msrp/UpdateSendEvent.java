@@ -21,6 +21,19 @@ public class UpdateSendEvent extends BaseEvent {
         this.bytesSent = bytesSent;
     }
 
+    UpdateSendEvent reuse(Session session, Message message, long bytesSent) {
+        reuse(session);
+        this.message = message;
+        this.bytesSent = bytesSent;
+        return this;
+    }
+
+    @Override
+    void clear() {
+        super.clear();
+        message = null;
+    }
+
     /**
      * @return the message
      */
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package javax.net.msrp;
+
+import java.net.InetAddress;
+import java.rmi.server.UID;
+import java.util.EventObject;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Cost of creating events on many threads at once: the event ids of
+ * {@link BaseEvent} against the {@link UID} the ids used to be taken from.
+ * Not part of the default test run, run it with
+ * <code>mvn test -Dtest=BaseEventBenchmark</code>; the number of threads
+ * and events can be set with <code>-Dthreads</code> and <code>-Devents</code>.
+ *
+ * @author tuijldert
+ */
+public class BaseEventBenchmark {
+	private static final int THREADS = Integer.getInteger("threads", 8);
+	/** events per thread */
+	private static final int EVENTS = Integer.getInteger("events", 1000000);
+	private static final int ROUNDS = 5;
+
+	/** keeps the events from being optimized away */
+	private static final AtomicLong sink = new AtomicLong();
+
+	@Test
+	public void constructors() throws Exception {
+		final Session session = Session.create(false, false, InetAddress.getLoopbackAddress());
+		try {
+			compare(new Factory() {
+				public EventObject create() {
+					return new LegacyEvent(session);
+				}
+			}, new Factory() {
+				public EventObject create() {
+					return new BaseEvent(session);
+				}
+			});
+		} finally {
+			session.tearDown();
+		}
+	}
+
+	private static void compare(Factory legacy, Factory current) throws InterruptedException {
+		// warm up
+		run(legacy);
+		run(current);
+		double[] legacyNs = new double[ROUNDS];
+		double[] currentNs = new double[ROUNDS];
+		for (int i = 0; i < ROUNDS; i++) {
+			legacyNs[i] = run(legacy);
+			currentNs[i] = run(current);
+		}
+		System.out.println(String.format("%d threads x %d events, ns per event (best of %d): UID %.1f, BaseEvent %.1f",
+				THREADS, EVENTS, ROUNDS, min(legacyNs), min(currentNs)));
+	}
+
+	private static double min(double[] values) {
+		double min = Double.MAX_VALUE;
+		for (double value : values)
+			min = Math.min(min, value);
+		return min;
+	}
+
+	/**
+	 * @return wall clock time per event (ns), over all threads
+	 */
+	private static double run(final Factory factory) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		for (int t = 0; t < THREADS; t++) {
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long hashes = 0L;
+					for (int i = 0; i < EVENTS; i++)
+						hashes += factory.create().hashCode();
+					sink.addAndGet(hashes);
+					done.countDown();
+				}
+			}).start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		return (double) (System.nanoTime() - begin) / ((long) THREADS * EVENTS);
+	}
+
+	private interface Factory {
+		EventObject create();
+	}
+
+	/**
+	 * An event as {@link BaseEvent} was created before: with a new
+	 * {@link UID} for each event.
+	 */
+	private static final class LegacyEvent extends EventObject {
+		private static final long serialVersionUID = 1L;
+
+		private final int id;
+
+		LegacyEvent(Session session) {
+			super(session);
+			id = (new UID()).hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return id;
+		}
+	}
+}
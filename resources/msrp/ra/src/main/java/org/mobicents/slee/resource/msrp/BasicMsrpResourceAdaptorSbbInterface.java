@@ -22,6 +22,8 @@
 package org.mobicents.slee.resource.msrp;
 
 import java.net.URI;
+import java.util.Collection;
+import java.util.List;
 
 import javax.sdp.SessionDescription;
 import javax.slee.facilities.Tracer;
@@ -68,8 +70,9 @@ public class BasicMsrpResourceAdaptorSbbInterface implements MsrpResourceAdaptor
     	if (ra.getActivity(handle) == null) {
 
 			try {
-				Session session = Session.create(false, true, ra.getAddress());
-				MsrpSession msession = ra.createActivity(sessionId, session, handle);
+				MsrpListeningPoint point = ra.selectListeningPoint();
+				Session session = Session.create(false, true, point.getAddress());
+				BasicMsrpSession msession = ra.createActivity(sessionId, session, handle, point);
 				SessionListener listener = new MsrpSessionListener(ra, msession);
 				session.setListener(listener);
 				return msession;
@@ -100,14 +103,21 @@ public class BasicMsrpResourceAdaptorSbbInterface implements MsrpResourceAdaptor
     		if(trc.isInfoEnabled())
     			trc.info("Connecting to " + fromUri);
 
+			String peer = ra.peerOf(fromUri);
+			boolean started = false;
 			try {
-				Session session = Session.create(false, true, fromUri, ra.getAddress());
-				MsrpSession msession = ra.createActivity(sessionId, session, handle);
+				MsrpListeningPoint point = ra.selectListeningPoint(peer);
+				Session session = Session.create(false, true, fromUri, point.getAddress());
+				BasicMsrpSession msession = ra.createActivity(sessionId, session, handle, point, peer);
+				started = true;
 				SessionListener listener = new MsrpSessionListener(ra, msession);
 				session.setListener(listener);
 				return msession;
 			} catch (Exception e) {
 	    		throw new ParseException(e);
+			} finally {
+				if (!started)
+					ra.leavePeer(peer);
 			}
     	} else {
     		String msg = "Connection already exists!";
@@ -121,9 +131,49 @@ public class BasicMsrpResourceAdaptorSbbInterface implements MsrpResourceAdaptor
 	 * @see org.mobicents.slee.resource.msrp.MsrpResourceAdaptorSbbInterface#connect(java.lang.String, java.lang.String, java.lang.String, java.lang.String)
 	 */
 	@Override
-	public MsrpSession connect(String sessionId, String to, String username, String password) {
-		//TODO: implement secure version of setting up a session...
-		return null;
+	public MsrpSession connect(String sessionId, String to, String username, String password)
+			throws ParseException {
+		checkState();
+
+		if(sessionId == null) {
+			throw new NullPointerException("null connection id");
+		}
+		if (username != null || password != null)
+			throw new ParseException("Authentication to a relay is not supported");
+		URI toUri;
+		try {
+			toUri = new URI(to);
+		} catch (Exception e) {
+			throw new ParseException(e);
+		}
+		if (!"msrps".equalsIgnoreCase(toUri.getScheme()))
+			throw new ParseException("Not an msrps uri: " + to);
+		MsrpActivityHandle handle = new MsrpActivityHandle(sessionId);
+    	if (ra.getActivity(handle) == null) {
+    		if(trc.isInfoEnabled())
+    			trc.info("Connecting securely to " + toUri);
+
+			String peer = ra.peerOf(toUri);
+			boolean started = false;
+			try {
+				MsrpListeningPoint point = ra.selectListeningPoint(peer);
+				BasicMsrpSession msession = ra.createActivity(sessionId, null, handle, point, peer);
+				started = true;
+				// the MSRP session, and with it the TLS connection, is set up off the caller's thread.
+				ra.connect(msession, toUri, point.getAddress());
+				return msession;
+			} catch (Exception e) {
+	    		throw new ParseException(e);
+			} finally {
+				if (!started)
+					ra.leavePeer(peer);
+			}
+    	} else {
+    		String msg = "Connection already exists!";
+    		if(trc.isInfoEnabled())
+				trc.info(msg);
+    		throw new ParseException(msg);
+    	}
 	}
 
 	/* (non-Javadoc)
@@ -134,4 +184,40 @@ public class BasicMsrpResourceAdaptorSbbInterface implements MsrpResourceAdaptor
 		checkState();
 		return (MsrpSession) ra.getActivity(new MsrpActivityHandle(sessionId));
 	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.slee.resource.msrp.MsrpResourceAdaptorSbbInterface#broadcast(java.util.Collection, java.lang.String, byte[])
+	 */
+	@Override
+	public List<String> broadcast(Collection<String> sessionIds, final String contentType, final byte[] message) {
+		checkState();
+		return ra.getBroadcaster().send(sessionIds, new Broadcaster.Send() {
+			public void send(BasicMsrpSession session) {
+				session.sendMessage(contentType, message);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.slee.resource.msrp.MsrpResourceAdaptorSbbInterface#broadcast(java.util.Collection, java.lang.CharSequence)
+	 */
+	@Override
+	public List<String> broadcast(Collection<String> sessionIds, CharSequence message) {
+		return broadcast(sessionIds, "text/plain", TextEncoder.toBytes(message));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.slee.resource.msrp.MsrpResourceAdaptorSbbInterface#broadcastWrappedMessage(java.util.Collection, java.lang.String, java.lang.String, java.lang.String, java.lang.CharSequence)
+	 */
+	@Override
+	public List<String> broadcastWrappedMessage(Collection<String> sessionIds, final String wrapType,
+			final String from, final String to, CharSequence message) {
+		checkState();
+		final byte[] content = TextEncoder.toBytes(message);
+		return ra.getBroadcaster().send(sessionIds, new Broadcaster.Send() {
+			public void send(BasicMsrpSession session) {
+				session.sendWrappedMessage(wrapType, from, to, content);
+			}
+		});
+	}
 }
@@ -20,13 +20,21 @@
  */
 package org.mobicents.slee.resource.msrp;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sdp.Connection;
 import javax.sdp.MediaDescription;
@@ -34,6 +42,7 @@ import javax.sdp.SdpException;
 import javax.sdp.SdpFactory;
 import javax.sdp.SessionDescription;
 
+import javax.net.msrp.Message;
 import javax.net.msrp.Session;
 import javax.net.msrp.Transaction;
 import javax.net.msrp.exceptions.ParseException;
@@ -48,28 +57,260 @@ import javax.net.msrp.exceptions.IllegalUseException;
  * @version 1.0
  */
 public class BasicMsrpSession implements MsrpSession {
-    private static Charset utf8 = Charset.forName("UTF-8");
-
-    protected static final int MAX_SIZE = 10240;
-
 	private static final String PATH_ATTRIBUTE = "path";
 	private static final String ACCEPTT_ATTRIBUTE = "accept-types";
 	private static final String MSIZE_ATTRIBUTE = "max-size";
 	private static final String[] formats = { "*" };
+	private static final int MSRP_NAMESPACE = 0;
+	/** status reported for a message held back that could not be sent */
+	private static final int NOT_SENT = 400;
 
 	private static final long serialVersionUID = 1L;
 
 	private MsrpResourceAdaptor ra;
 	private String sessionId;
-	private Session session;
-	private final String toString;
+	/** null while being connected in the background */
+	private volatile Session session;
+	private volatile String toString;
 	private ArrayList<URI> toList;
 
+	/** the local sdp, built once; handed out as copies */
+	private transient volatile SessionDescription localSdp;
+	private transient volatile String localSdpString;
+
+	/** the local address this session is bound to, null once ended */
+	private transient MsrpListeningPoint listeningPoint;
+	/** the peer this session is accounted to, null if not known (anymore) */
+	private transient String peer;
+
+	/** when traffic was last received and sent (ms) */
+	private transient volatile long lastReceived;
+	private transient volatile long lastSent;
+	/** the last keepalive sent, null if none */
+	private transient volatile Message keepalive;
+	/** when (ms) a keepalive last failed, 0 if never */
+	private transient volatile long keepaliveFailed;
+	/** when (ms) the oldest keepalive not answered by incoming traffic was sent */
+	private transient volatile long keepaliveSent;
+	/** the pending liveness check, null when not watched (anymore) */
+	private transient TimingWheel.Timeout livenessCheck;
+	private transient boolean unwatched;
+	/** set once the loss of this session has been reported */
+	private transient boolean lost;
+	/** payloads staged in temporary files, deleted once sent */
+	private transient Map<Message, File> staged;
+	/** staged files of messages the stack returned no handle on, deleted once the session ends */
+	private transient List<File> stagedUnmatched;
+	/** size from which messages are sent one at a time, -1 for the RA's setting */
+	private transient volatile long largeMessageSize = -1L;
+	/** sends the large messages one at a time */
+	private final transient SendPacer<Outgoing> largeMessages = new SendPacer<Outgoing>() {
+		@Override
+		Object transmit(Outgoing message) throws IOException {
+			return BasicMsrpSession.this.transmit(message);
+		}
+
+		@Override
+		void failed(Outgoing message, Exception e) {
+			heldBackFailed(message, e);
+		}
+
+		@Override
+		void discard(Outgoing message) {
+			message.discard();
+		}
+
+		@Override
+		long getTimeout() {
+			return ra.getLargeMessageTimeout();
+		}
+
+		@Override
+		TimingWheel getTimer() {
+			return ra.getTimer();
+		}
+
+		@Override
+		void timedOut(Object message) {
+			ra.getTracer().warning("No progress sending large message " + ((Message) message).getMessageID() +
+					" on session " + sessionId + ", sending the next one");
+		}
+	};
+	/** messages sent while connecting in the background, null once connected */
+	private transient List<Outgoing> awaitingConnect;
+	private transient volatile boolean connecting;
+	/** released once the MSRP session is there, or never will be */
+	private final transient CountDownLatch attached;
+	/** held while handing messages to the stack, so a batch is not interleaved */
+	private final transient Object sendLock = new Object();
+	/** incoming messages fired on this session that the SLEE has not finished processing */
+	private final transient AtomicInteger eventsInFlight = new AtomicInteger();
+
+	/**
+	 * @param sessionId	identifies the session
+	 * @param session	the MSRP session, null if it is still to be connected, see {@link #attach(Session)}
+	 * @param ra		the RA
+	 */
 	public BasicMsrpSession(String sessionId, Session session, MsrpResourceAdaptor ra) {
 		this.sessionId = sessionId;
 		this.session = session;
 		this.ra = ra;
-		this.toString = "MsrpSession { connectionId="+sessionId+",connection="+session.toString()+"}";
+		this.toString = "MsrpSession { connectionId="+sessionId+",connection="+session+"}";
+		this.attached = new CountDownLatch(session == null ? 1 : 0);
+		this.lastReceived = this.lastSent = System.currentTimeMillis();
+	}
+
+	void received() {
+		lastReceived = System.currentTimeMillis();
+	}
+
+	void sent() {
+		lastSent = System.currentTimeMillis();
+	}
+
+	void eventFired() {
+		eventsInFlight.incrementAndGet();
+	}
+
+	void eventProcessed() {
+		eventsInFlight.decrementAndGet();
+	}
+
+	/**
+	 * @param credits max. number of incoming messages in flight
+	 * @return whether another incoming message may be accepted
+	 */
+	boolean hasCredit(int credits) {
+		return eventsInFlight.get() < credits;
+	}
+
+	long getLastReceived() {
+		return lastReceived;
+	}
+
+	long getLastSent() {
+		return lastSent;
+	}
+
+	/**
+	 * Send a bodiless SEND, to keep the connection alive.
+	 * @return whether it was sent; if not, the keepalive failed.
+	 */
+	boolean sendKeepalive() {
+		Session msrp = session;
+		if (msrp == null)
+			return false;			// still connecting: nothing to keep alive.
+		try {
+			keepalive = msrp.sendAliveMessage();
+			sent();
+			// a keepalive sent while an earlier one is unanswered keeps its time.
+			if (keepaliveSent <= lastReceived)
+				keepaliveSent = lastSent;
+			return true;
+		} catch (Exception e) {
+			keepaliveFailed();
+			return false;
+		}
+	}
+
+	/**
+	 * @param messageId the Message-ID of a message sent on this session
+	 * @return whether it is the last keepalive sent
+	 */
+	boolean isKeepalive(String messageId) {
+		Message last = keepalive;
+		return last != null && messageId != null && messageId.equals(last.getMessageID());
+	}
+
+	void keepaliveFailed() {
+		keepaliveFailed = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return when (ms) a keepalive last failed, 0 if never
+	 */
+	long getKeepaliveFailed() {
+		return keepaliveFailed;
+	}
+
+	/**
+	 * @return when (ms) the oldest keepalive sent since the last incoming traffic
+	 * 			was sent; not after {@link #getLastReceived()} if all were answered.
+	 */
+	long getKeepaliveSent() {
+		return keepaliveSent;
+	}
+
+	/**
+	 * @param check the next liveness check of this session; cancelled if no longer watched.
+	 */
+	synchronized void setLivenessCheck(TimingWheel.Timeout check) {
+		if (unwatched)
+			check.cancel();
+		else
+			livenessCheck = check;
+	}
+
+	/**
+	 * Stop checking the liveness of this session.
+	 */
+	synchronized void stopLivenessCheck() {
+		unwatched = true;
+		if (livenessCheck != null) {
+			livenessCheck.cancel();
+			livenessCheck = null;
+		}
+	}
+
+	/**
+	 * @return true only the first time: whoever gets it reports the loss of this session.
+	 */
+	synchronized boolean markLost() {
+		if (lost)
+			return false;
+		lost = true;
+		return true;
+	}
+
+	/**
+	 * Account this session to the given listening point, leaving the previous one.
+	 * @param point	the local address this session is bound to, null when the session ends
+	 */
+	synchronized void setListeningPoint(MsrpListeningPoint point) {
+		if (listeningPoint != null)
+			listeningPoint.sessionEnded();
+		listeningPoint = point;
+		if (point != null)
+			point.sessionStarted();
+		else
+			attached.countDown();	// ended: it will not be connected anymore.
+	}
+
+	/**
+	 * @return the local address this session is bound to, null once ended
+	 */
+	synchronized MsrpListeningPoint getListeningPoint() {
+		return listeningPoint;
+	}
+
+	/**
+	 * @param peer the peer this session goes to
+	 * @return true only the first time, while the session has not ended
+	 */
+	synchronized boolean setPeer(String peer) {
+		if (this.peer != null || listeningPoint == null)
+			return false;
+		this.peer = peer;
+		return true;
+	}
+
+	/**
+	 * @return the peer this session was accounted to, null if none; only once
+	 */
+	synchronized String leavePeer() {
+		String left = peer;
+		peer = null;
+		return left;
 	}
 
 	/**
@@ -94,14 +335,54 @@ public class BasicMsrpSession implements MsrpSession {
 	 * @see org.mobicents.slee.resource.msrp.MsrpSession#getLocalSdp()
 	 */
 	public SessionDescription getLocalSdp() {
-		try {
-			return getLocalSdp(session.getURI());
-		} catch (SdpException e) {
+		SessionDescription sdp = getLocalSdpTemplate();
+		if (sdp == null)
 			return null;
+		try {
+			return (SessionDescription) sdp.clone();
+		} catch (CloneNotSupportedException e) {
+			try {
+				return getLocalSdp(session.getURI(), ra.getDataContainerFactory().getMaxSize());
+			} catch (SdpException se) {
+				return null;
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.slee.resource.msrp.MsrpSession#getLocalSdpString()
+	 */
+	public String getLocalSdpString() {
+		String sdp = localSdpString;
+		if (sdp == null) {
+			getLocalSdpTemplate();
+			sdp = localSdpString;
 		}
+		return sdp;
 	}
 
-	protected static SessionDescription getLocalSdp(URI localUri) throws SdpException {
+	/**
+	 * @return the local sdp of this session, built on first use; null if it
+	 * 			failed to connect, or is still connecting after the RA's sdp timeout.
+	 */
+	private SessionDescription getLocalSdpTemplate() {
+		SessionDescription sdp = localSdp;
+		if (sdp == null) {
+			Session msrp = awaitSession();
+			if (msrp == null)
+				return null;
+			try {
+				sdp = getLocalSdp(msrp.getURI(), ra.getDataContainerFactory().getMaxSize());
+			} catch (SdpException e) {
+				return null;
+			}
+			localSdpString = sdp.toString();
+			localSdp = sdp;
+		}
+		return sdp;
+	}
+
+	protected static SessionDescription getLocalSdp(URI localUri, long maxSize) throws SdpException {
 		SessionDescription localSdp;
 
 		SdpFactory sf = SdpFactory.getInstance();
@@ -109,12 +390,12 @@ public class BasicMsrpSession implements MsrpSession {
         localSdp.getOrigin().setSessionId(new Date().getTime());
         localSdp.getOrigin().setSessionVersion(1);
 		localSdp.setConnection(sf.createConnection(Connection.IN, Connection.IP4, localUri.getHost()));
-		// TODO: also cater for TLS...
-		MediaDescription medium = sf.createMediaDescription("message", localUri.getPort(), 0, "TCP/MSRP", formats);
+		String transport = "msrps".equalsIgnoreCase(localUri.getScheme()) ? "TCP/TLS/MSRP" : "TCP/MSRP";
+		MediaDescription medium = sf.createMediaDescription("message", localUri.getPort(), 0, transport, formats);
 		medium.setAttribute(PATH_ATTRIBUTE, localUri.toString());
 		// TODO: subject to negotiation...
 		medium.setAttribute(ACCEPTT_ATTRIBUTE, "text/*");
-		medium.setAttribute(MSIZE_ATTRIBUTE, Integer.toString(MAX_SIZE));
+		medium.setAttribute(MSIZE_ATTRIBUTE, Long.toString(maxSize));
 		Vector<MediaDescription> media = new Vector<MediaDescription>(1);
 		media.add(medium);
 		localSdp.setMediaDescriptions(media);
@@ -140,6 +421,77 @@ public class BasicMsrpSession implements MsrpSession {
 				toList.add(new URI(md.getAttribute(PATH_ATTRIBUTE)));
 			}
 			session.setToPath(toList);
+			ra.joinPeer(this, toList.get(0));
+		}
+	}
+
+	/**
+	 * The MSRP session is to be connected to the given peer in the background:
+	 * messages sent from now on are held back until {@link #connected()}.
+	 * @param to the msrp(s) uri of the peer
+	 */
+	synchronized void connecting(URI to) {
+		ArrayList<URI> path = new ArrayList<URI>(1);
+		path.add(to);
+		toList = path;
+		awaitingConnect = new ArrayList<Outgoing>();
+		connecting = true;
+	}
+
+	/**
+	 * The MSRP session connected in the background is there.
+	 * @param session the MSRP session
+	 * @return whether it was taken: not if this session ended meanwhile
+	 */
+	boolean attach(Session session) {
+		try {
+			synchronized (this) {
+				if (listeningPoint == null)
+					return false;
+				this.session = session;
+				toString = "MsrpSession { connectionId="+sessionId+",connection="+session+"}";
+				return true;
+			}
+		} finally {
+			attached.countDown();
+		}
+	}
+
+	/**
+	 * @return the MSRP session, waiting a while for it while it is being connected;
+	 * 			null if that failed or takes longer.
+	 */
+	private Session awaitSession() {
+		try {
+			attached.await(ra.getSdpTimeout(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return session;
+	}
+
+	/**
+	 * The session got connected: send what was held back meanwhile, in order.
+	 */
+	void connected() {
+		while (true) {
+			List<Outgoing> held;
+			synchronized (this) {
+				held = awaitingConnect;
+				if (held == null || held.isEmpty()) {
+					awaitingConnect = null;
+					connecting = false;
+					return;
+				}
+				awaitingConnect = new ArrayList<Outgoing>();
+			}
+			for (Outgoing message : held) {
+				try {
+					sendNow(message);
+				} catch (Exception e) {
+					heldBackFailed(message, e);
+				}
+			}
 		}
 	}
 
@@ -147,7 +499,21 @@ public class BasicMsrpSession implements MsrpSession {
 	 * @see org.mobicents.slee.resource.msrp.MsrpSession#sendMessage(java.lang.CharSequence)
 	 */
 	public void sendMessage(CharSequence message) {
-		sendMessage(message.toString().getBytes(utf8));
+		TextEncoder encoder = TextEncoder.take();
+		try {
+			ByteBuffer encoded = encoder.encode(message);
+			try {
+				// the encoder's scratch buffer is reused: always copied out of.
+				sendMessage("text/plain", encoded, false);
+			} catch (IOException e) {
+				// could not stage it in a file: send from memory after all.
+				byte[] content = new byte[encoded.remaining()];
+				encoded.get(content);
+				sendMessage("text/plain", content);
+			}
+		} finally {
+			encoder.release();
+		}
 	}
 
 	/* (non-Javadoc)
@@ -160,8 +526,253 @@ public class BasicMsrpSession implements MsrpSession {
 	/* (non-Javadoc)
 	 * @see org.mobicents.slee.resource.msrp.MsrpSession#sendMessage(java.lang.String, byte[])
 	 */
-	public void sendMessage(String contentType, byte[] message) {
-		session.sendMessage(contentType, message);
+	public void sendMessage(final String contentType, final byte[] message) {
+		send(new Outgoing(message.length, null) {
+			Message send() {
+				return session.sendMessage(contentType, message);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.slee.resource.msrp.MsrpSession#sendMessage(java.lang.String, java.nio.ByteBuffer)
+	 */
+	public void sendMessage(final String contentType, ByteBuffer message) throws IOException {
+		sendMessage(contentType, message, true);
+	}
+
+	/**
+	 * @param contentType	the content type of the message
+	 * @param message		the content, from position to limit
+	 * @param owned			whether the caller's backing array may be handed to the stack as is
+	 * @throws IOException	could not stage the content in a file
+	 */
+	private void sendMessage(final String contentType, ByteBuffer message, boolean owned) throws IOException {
+		int size = message.remaining();
+		if (owned && message.hasArray() && message.arrayOffset() + message.position() == 0
+				&& size == message.array().length) {
+			sendMessage(contentType, message.array());	// the whole array: no copy needed.
+		} else if (size <= ra.getDataContainerFactory().getMemoryThreshold()) {
+			byte[] content = new byte[size];
+			message.duplicate().get(content);
+			sendMessage(contentType, content);
+		} else {
+			final File file = ra.getDataContainerFactory().spill(message.duplicate());
+			sendChecked(new Outgoing(size, file) {
+				Message send() throws IOException {
+					return session.sendMessage(contentType, file);
+				}
+			});
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.slee.resource.msrp.MsrpSession#sendMessage(java.lang.String, java.nio.file.Path)
+	 */
+	public void sendMessage(final String contentType, Path file) throws IOException {
+		final File content = file.toFile();
+		sendChecked(new Outgoing(content.length(), null) {
+			Message send() throws IOException {
+				return session.sendMessage(contentType, content);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.slee.resource.msrp.MsrpSession#sendMessages(java.lang.String, java.util.List)
+	 */
+	public List<Exception> sendMessages(String contentType, List<? extends ByteBuffer> messages) {
+		List<Exception> results = new ArrayList<Exception>(messages.size());
+		Session msrp = session;
+		if (msrp != null && !msrp.isActive()) {
+			Exception inactive = new IllegalStateException("MSRP session not active: " + sessionId);
+			for (int i = 0; i < messages.size(); i++)
+				results.add(inactive);
+			return results;
+		}
+		synchronized (sendLock) {
+			for (ByteBuffer message : messages) {
+				try {
+					sendMessage(contentType, message, true);
+					results.add(null);
+				} catch (Exception e) {
+					results.add(e);
+				}
+			}
+		}
+		return results;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mobicents.slee.resource.msrp.MsrpSession#setLargeMessageSize(long)
+	 */
+	public void setLargeMessageSize(long size) {
+		largeMessageSize = size;
+	}
+
+	/**
+	 * Keep the file a message is sent from, until it is sent.
+	 */
+	private synchronized void stage(Message message, File file) {
+		if (message == null) {
+			// its end cannot be told: keep it until the session ends.
+			if (stagedUnmatched == null)
+				stagedUnmatched = new ArrayList<File>();
+			stagedUnmatched.add(file);
+			return;
+		}
+		if (staged == null)
+			staged = new HashMap<Message, File>();
+		staged.put(message, file);
+	}
+
+	/**
+	 * Part of a message was sent.
+	 * @param message the message
+	 */
+	void sendProgress(Message message) {
+		largeMessages.progress(message);
+	}
+
+	/**
+	 * Sending a message finished, one way or another.
+	 * @param message the message
+	 */
+	void sendDone(Message message) {
+		synchronized (this) {
+			if (staged != null) {
+				File file = staged.remove(message);
+				if (file != null)
+					file.delete();
+			}
+		}
+		largeMessages.done(message);
+	}
+
+	/**
+	 * The session ended: nothing more will be sent.
+	 */
+	void releaseStaged() {
+		largeMessages.clear();
+		releaseFiles();
+	}
+
+	private synchronized void releaseFiles() {
+		if (staged != null) {
+			for (File file : staged.values())
+				file.delete();
+			staged = null;
+		}
+		if (stagedUnmatched != null) {
+			for (File file : stagedUnmatched)
+				file.delete();
+			stagedUnmatched = null;
+		}
+		if (awaitingConnect != null) {
+			for (Outgoing held : awaitingConnect)
+				held.discard();
+			awaitingConnect = null;
+		}
+	}
+
+	/**
+	 * Send a message that cannot fail on I/O up front.
+	 */
+	private void send(Outgoing message) {
+		try {
+			sendChecked(message);
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to send message", e);
+		}
+	}
+
+	/**
+	 * Hand a message to the stack, or hold it back while connecting.
+	 */
+	private void sendChecked(Outgoing message) throws IOException {
+		synchronized (sendLock) {
+			if (connecting) {
+				synchronized (this) {
+					if (awaitingConnect != null) {
+						awaitingConnect.add(message);
+						return;
+					}
+				}
+			}
+			sendNow(message);
+		}
+	}
+
+	/**
+	 * Hand a message to the stack; a large one is held back while another
+	 * large one is being sent, so the messages sent meanwhile need to wait
+	 * for one large message at most.
+	 */
+	private void sendNow(Outgoing message) throws IOException {
+		long large = largeMessageSize;
+		if (large < 0L)
+			large = ra.getLargeMessageSize();
+		if (large <= 0L || message.size < large) {
+			transmit(message);
+			return;
+		}
+		largeMessages.send(message);
+	}
+
+	private Message transmit(Outgoing outgoing) throws IOException {
+		Message message;
+		try {
+			message = outgoing.send();
+		} catch (IOException e) {
+			outgoing.discard();
+			throw e;
+		} catch (RuntimeException e) {
+			outgoing.discard();
+			throw e;
+		}
+		if (outgoing.file != null)
+			stage(message, outgoing.file);
+		sent();
+		ra.getMetrics().messageSent(outgoing.size);
+		ReportCorrelator reports = ra.getReports();
+		if (reports != null)
+			reports.sent(this, message);
+		return message;
+	}
+
+	/**
+	 * A message held back could not be handed to the stack later on. Its
+	 * sender returned long ago, so the failure is reported on the activity:
+	 * as a ReportEvent without Message-ID, as the message never got one.
+	 * @param message	the message
+	 * @param e			why it was not sent
+	 */
+	private void heldBackFailed(Outgoing message, Exception e) {
+		ra.getTracer().warning("Failed to send held back message on session " + sessionId, e);
+		ra.fireEvent(ra.newReportEvent(session, null, MSRP_NAMESPACE, NOT_SENT,
+				"Held back message of " + message.size + " bytes not sent: " + e),
+				new MsrpActivityHandle(sessionId));
+	}
+
+	/**
+	 * A message to be handed to the stack.
+	 */
+	private abstract static class Outgoing {
+		final long size;
+		/** staged payload, deleted once sent */
+		final File file;
+
+		Outgoing(long size, File file) {
+			this.size = size;
+			this.file = file;
+		}
+
+		abstract Message send() throws IOException;
+
+		void discard() {
+			if (file != null)
+				file.delete();
+		}
 	}
 
 	/* (non-Javadoc)
@@ -169,8 +780,19 @@ public class BasicMsrpSession implements MsrpSession {
 	 */
 	public void sendWrappedMessage(	String wrapType, String from,
 									String to, CharSequence message) {
-		session.sendWrappedMessage(	wrapType, from, to,
-									"text/plain", message.toString().getBytes(utf8));
+		sendWrappedMessage(wrapType, from, to, TextEncoder.toBytes(message));
+	}
+
+	/**
+	 * Send already encoded text, wrapped.
+	 * @param content the UTF-8 encoded text, not modified afterwards
+	 */
+	void sendWrappedMessage(final String wrapType, final String from, final String to, final byte[] content) {
+		send(new Outgoing(content.length, null) {
+			Message send() {
+				return session.sendWrappedMessage(	wrapType, from, to, "text/plain", content);
+			}
+		});
 	}
 
 	/* (non-Javadoc)
@@ -185,10 +807,12 @@ public class BasicMsrpSession implements MsrpSession {
 	 * @see org.mobicents.slee.resource.msrp.MsrpSession#disconnect()
 	 */
 	public void disconnect() {
-		if (session != null)
-			session.tearDown();
+		// ended first, so a session still connecting is not attached afterwards.
 		if (sessionId != null)
 			ra.endActivity(sessionId);
+		Session msrp = session;
+		if (msrp != null)
+			msrp.tearDown();
 	}
 
 	public String getSessionId() { return sessionId; }
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.slee.facilities.Tracer;
+
+import javax.net.msrp.Session;
+
+/**
+ * Sends one message to many sessions.
+ * <BR>
+ * The caller encodes the content once; the very same (never modified) content
+ * is then handed to every target session. The target sessions
+ * are split into one batch per sender thread, so the writes run in parallel
+ * on RA threads while the caller waits for all of them to be queued at the
+ * MSRP stack.
+ *
+ * @author tuijldert
+ */
+class Broadcaster {
+	private final MsrpResourceAdaptor ra;
+	private final Tracer trc;
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * What to send to each session.
+	 */
+	interface Send {
+		/**
+		 * @param session the target
+		 * @throws Exception sending to this session failed
+		 */
+		void send(BasicMsrpSession session) throws Exception;
+	}
+
+	/**
+	 * @param ra		the RA the sessions belong to
+	 * @param name		used to name the sender threads
+	 * @param threads	number of sender threads
+	 */
+	Broadcaster(MsrpResourceAdaptor ra, String name, int threads) {
+		this.ra = ra;
+		this.trc = ra.getTracer();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new RaThreadFactory(name, "sender"));
+	}
+
+	/**
+	 * @param threads number of sender threads
+	 */
+	synchronized void reconfigure(int threads) {
+		// keep core <= max at all times.
+		if (threads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		} else {
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+	}
+
+	/**
+	 * Send to all the given sessions and wait until done.
+	 * @param sessionIds	the target sessions
+	 * @param send			what to send to each of them
+	 * @return the ids of the sessions that could not be sent to, in the given order
+	 */
+	List<String> send(Collection<String> sessionIds, final Send send) {
+		List<String> targets = new ArrayList<String>(sessionIds);
+		int batches = Math.max(1, Math.min(executor.getCorePoolSize(), targets.size()));
+		int batchSize = (targets.size() + batches - 1) / batches;
+		List<Future<List<String>>> results = new ArrayList<Future<List<String>>>(batches);
+		List<List<String>> submitted = new ArrayList<List<String>>(batches);
+		for (int from = 0; from < targets.size(); from += batchSize) {
+			final List<String> batch = targets.subList(from, Math.min(from + batchSize, targets.size()));
+			try {
+				results.add(executor.submit(new Callable<List<String>>() {
+					public List<String> call() {
+						return sendBatch(batch, send);
+					}
+				}));
+			} catch (RejectedExecutionException e) {
+				results.add(null);		// stopped: nothing of this batch delivered.
+			}
+			submitted.add(batch);
+		}
+		List<String> failed = new ArrayList<String>();
+		for (int i = 0; i < results.size(); i++) {
+			Future<List<String>> result = results.get(i);
+			try {
+				if (result == null)
+					failed.addAll(submitted.get(i));
+				else
+					failed.addAll(result.get());
+			} catch (ExecutionException e) {
+				trc.warning("Failed to broadcast message", e.getCause());
+				failed.addAll(submitted.get(i));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failed.addAll(submitted.get(i));
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Stop accepting broadcasts and wait a while for those in progress.
+	 * @param timeout	max. time (ms) to wait.
+	 */
+	void shutdown(long timeout) {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+				executor.shutdownNow();
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private List<String> sendBatch(List<String> sessionIds, Send send) {
+		List<String> failed = new ArrayList<String>(0);
+		for (String sessionId : sessionIds) {
+			BasicMsrpSession session = (BasicMsrpSession) ra.getActivity(new MsrpActivityHandle(sessionId));
+			Session msrp = session == null ? null : (Session) session.getSession();
+			// a session still connecting holds the message back.
+			if (session == null || (msrp != null && !msrp.isActive())) {
+				failed.add(sessionId);
+				continue;
+			}
+			try {
+				send.send(session);
+			} catch (Exception e) {
+				if (trc.isFineEnabled())
+					trc.fine("Broadcast to session " + sessionId + " failed", e);
+				failed.add(sessionId);
+			}
+		}
+		return failed;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recycles direct buffers in power-of-2 size classes.
+ * <BR>
+ * Buffers are carved from slabs: large direct buffers allocated per size
+ * class on demand, up to the given capacity. Beyond that, or for sizes
+ * above the largest class, plain heap buffers are handed out, which are
+ * not recycled.
+ *
+ * @author tuijldert
+ */
+class BufferPool {
+	/** smallest size class: 1 KB */
+	private static final int MIN_SHIFT = 10;
+	/** preferred size of a slab: 1 MB */
+	private static final int SLAB_SIZE = 1 << 20;
+
+	private final SizeClass[] sizeClasses;
+	private volatile long capacity;
+
+	private final AtomicLong allocated = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong outstanding = new AtomicLong();
+
+	/**
+	 * @param maxBufferSize	the largest buffer to be pooled
+	 * @param capacity		max. number of bytes allocated for slabs
+	 */
+	BufferPool(int maxBufferSize, long capacity) {
+		this.capacity = capacity;
+		sizeClasses = new SizeClass[sizeClass(Math.max(maxBufferSize, 1)) + 1];
+		for (int i = 0; i < sizeClasses.length; i++) {
+			sizeClasses[i] = new SizeClass(1 << (i + MIN_SHIFT));
+		}
+	}
+
+	private static int sizeClass(int size) {
+		int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+		return Math.max(shift - MIN_SHIFT, 0);
+	}
+
+	/**
+	 * @param size number of bytes needed
+	 * @return a cleared buffer of at least given size
+	 */
+	ByteBuffer acquire(int size) {
+		outstanding.incrementAndGet();
+		int sizeClass = sizeClass(size);
+		if (sizeClass < sizeClasses.length) {
+			SizeClass pooled = sizeClasses[sizeClass];
+			ByteBuffer buffer = pooled.free.poll();
+			if (buffer != null) {
+				hits.incrementAndGet();
+				buffer.clear();
+				return buffer;
+			}
+			misses.incrementAndGet();
+			buffer = pooled.carve();
+			if (buffer != null)
+				return buffer;
+		} else {
+			misses.incrementAndGet();
+		}
+		return ByteBuffer.allocate(size);
+	}
+
+	/**
+	 * @param buffer a buffer obtained through {@link #acquire(int)}
+	 */
+	void release(ByteBuffer buffer) {
+		outstanding.decrementAndGet();
+		if (buffer.isDirect()) {
+			int sizeClass = sizeClass(buffer.capacity());
+			if (sizeClass < sizeClasses.length && sizeClasses[sizeClass].size == buffer.capacity())
+				sizeClasses[sizeClass].free.offer(buffer);
+		}
+	}
+
+	/**
+	 * Change the number of bytes that may be allocated for slabs.
+	 * Slabs already allocated are kept when lowering it.
+	 * @param capacity max. number of bytes allocated for slabs
+	 */
+	void setCapacity(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/** @return number of buffers handed out from the free lists */
+	long getHits() { return hits.get(); }
+
+	/** @return number of buffers that had to be carved or allocated */
+	long getMisses() { return misses.get(); }
+
+	/** @return number of buffers handed out and not yet released */
+	long getOutstanding() { return outstanding.get(); }
+
+	/** @return number of bytes allocated for slabs */
+	long getAllocated() { return allocated.get(); }
+
+	/**
+	 * The free buffers of a single size.
+	 */
+	private final class SizeClass {
+		private final int size;
+		private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+
+		SizeClass(int size) {
+			this.size = size;
+		}
+
+		/**
+		 * Allocate a new slab, keep all but one of its buffers.
+		 * @return the remaining buffer, null when at capacity.
+		 */
+		ByteBuffer carve() {
+			int slabSize = Math.max(SLAB_SIZE, size);
+			long total;
+			do {
+				total = allocated.get();
+				if (total + slabSize > capacity)
+					return null;
+			} while (!allocated.compareAndSet(total, total + slabSize));
+
+			ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+			ByteBuffer first = null;
+			for (int offset = 0; offset + size <= slabSize; offset += size) {
+				slab.limit(offset + size).position(offset);
+				ByteBuffer buffer = slab.slice();
+				if (first == null)
+					first = buffer;
+				else
+					free.offer(buffer);
+			}
+			return first;
+		}
+	}
+}
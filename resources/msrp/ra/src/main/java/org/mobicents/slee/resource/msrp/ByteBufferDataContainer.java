@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.msrp.DataContainer;
+
+/**
+ * A {@link DataContainer} on top of a {@link ByteBuffer} the RA manages.
+ * <BR>
+ * Pooled storage is handed back by {@link #release()}, either when the
+ * stack disposes of the container or when the SLEE no longer references
+ * the event carrying it. After that the container reads as empty.
+ * Storage that is not pooled is never handed back explicitly: applications
+ * may keep reading the content for as long as they hold on to the message,
+ * the factory reclaims it once the container is garbage collected.
+ *
+ * @author tuijldert
+ */
+abstract class ByteBufferDataContainer extends DataContainer {
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	private volatile ByteBuffer buffer;
+	private final boolean pooled;
+	private final AtomicBoolean released = new AtomicBoolean(false);
+	private boolean locked = false;
+	private long readOffset = 0;
+
+	/**
+	 * @param buffer	the storage, its capacity being the size of the content.
+	 * @param pooled	whether the storage is handed back by {@link #release()}
+	 */
+	ByteBufferDataContainer(ByteBuffer buffer, boolean pooled) {
+		this.buffer = buffer;
+		this.pooled = pooled;
+	}
+
+	/**
+	 * @return whether the storage is handed back once the SLEE is done with the message.
+	 */
+	boolean isPooled() {
+		return pooled;
+	}
+
+	public boolean isLocked() {
+		return locked;
+	}
+
+	public void lock() {
+		locked = true;
+	}
+
+	public boolean hasDataToRead() {
+		return readOffset < buffer.capacity();
+	}
+
+	public int get(byte[] dst, int offset) throws IndexOutOfBoundsException {
+		ByteBuffer src = buffer.duplicate();
+		int count = (int) Math.min(dst.length - offset, src.capacity() - readOffset);
+		if (count <= 0)
+			return 0;
+		src.position((int) readOffset);
+		src.get(dst, offset, count);
+		readOffset += count;
+		return count;
+	}
+
+	public long size() {
+		return buffer.capacity();
+	}
+
+	public void put(long startingIndex, byte[] dataToPut) {
+		ByteBuffer dst = buffer.duplicate();
+		dst.position((int) startingIndex);
+		dst.put(dataToPut);
+	}
+
+	public void put(long startingIndex, byte byteToPut) {
+		buffer.put((int) startingIndex, byteToPut);
+	}
+
+	/**
+	 * @return a copy of the requested range, callers are free to use its array.
+	 */
+	public ByteBuffer get(long offsetIndex, long numberBytesToRetrieve) {
+		ByteBuffer src = buffer.duplicate();
+		byte[] bytes = new byte[(int) numberBytesToRetrieve];
+		src.position((int) offsetIndex);
+		src.get(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	public long currentReadOffset() {
+		return readOffset;
+	}
+
+	public void rewindRead(long nrPositions) {
+		readOffset = Math.max(0L, readOffset - nrPositions);
+	}
+
+	public void dispose() {
+		release();
+	}
+
+	/**
+	 * Hand back pooled storage, only the first call has any effect.
+	 */
+	final void release() {
+		if (pooled && released.compareAndSet(false, true)) {
+			buffer = EMPTY;
+			released();
+		}
+	}
+
+	/**
+	 * Called once, when the storage is no longer in use.
+	 */
+	protected abstract void released();
+}
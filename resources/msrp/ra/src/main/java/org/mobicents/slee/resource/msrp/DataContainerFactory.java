@@ -0,0 +1,301 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.msrp.DataContainer;
+
+/**
+ * Provides storage for incoming messages.
+ * <BR>
+ * Messages up to the memory threshold are kept in memory as long as the
+ * total memory in use stays within budget, optionally in recycled direct
+ * buffers.
+ * All others are spilled to memory-mapped temporary files.
+ * <BR>
+ * The size limits may be changed while messages are stored; each message
+ * keeps to the limits in force when its storage was created.
+ * <BR>
+ * Pooled storage is handed back explicitly. Other storage is reclaimed once
+ * its container has been garbage collected: its memory no longer counts
+ * against the budget, its file is deleted.
+ *
+ * @author tuijldert
+ */
+class DataContainerFactory {
+	private volatile Limits limits;
+	private final File spillDirectory;
+	/** recycles memory buffers, null when not pooling */
+	private final BufferPool pool;
+
+	/** memory in use by messages */
+	private final AtomicLong memoryInUse = new AtomicLong();
+
+	/** storage not pooled, reclaimed once its container is collected */
+	private final ReferenceQueue<ByteBufferDataContainer> collected = new ReferenceQueue<ByteBufferDataContainer>();
+	private final Set<Reclaim> unreclaimed =
+			Collections.newSetFromMap(new ConcurrentHashMap<Reclaim, Boolean>());
+
+	/**
+	 * @param maxSize			largest message accepted
+	 * @param memoryThreshold	largest message kept in memory
+	 * @param memoryBudget		max. total memory in use by messages
+	 * @param spillDirectory	where to put larger messages, null for the default temp directory
+	 * @param pooling			whether to recycle memory buffers
+	 */
+	DataContainerFactory(long maxSize, int memoryThreshold, long memoryBudget,
+							File spillDirectory, boolean pooling) {
+		this.limits = new Limits(maxSize, memoryThreshold, memoryBudget);
+		this.spillDirectory = spillDirectory;
+		this.pool = pooling ? new BufferPool(memoryThreshold, memoryBudget) : null;
+	}
+
+	/**
+	 * Change the size limits, in one go.
+	 * Buffers are only pooled up to the memory threshold given at construction.
+	 * @param maxSize			largest message accepted
+	 * @param memoryThreshold	largest message kept in memory
+	 * @param memoryBudget		max. total memory in use by messages
+	 */
+	void update(long maxSize, int memoryThreshold, long memoryBudget) {
+		limits = new Limits(maxSize, memoryThreshold, memoryBudget);
+		if (pool != null)
+			pool.setCapacity(memoryBudget);
+	}
+
+	long getMaxSize() {
+		return limits.maxSize;
+	}
+
+	int getMemoryThreshold() {
+		return limits.memoryThreshold;
+	}
+
+	long getMemoryInUse() {
+		reclaim();
+		return memoryInUse.get();
+	}
+
+	/**
+	 * @return the pool of memory buffers, null when not pooling.
+	 */
+	BufferPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * @param size size of the message
+	 * @return whether a message of given size is acceptable at all.
+	 */
+	boolean accepts(long size) {
+		return size >= 0 && size <= limits.maxSize;
+	}
+
+	/**
+	 * @param size size of the message
+	 * @return storage for the message
+	 * @throws IOException could not spill to file
+	 */
+	DataContainer create(long size) throws IOException {
+		reclaim();
+		Limits current = limits;
+		if (size <= current.memoryThreshold && reserve(size, current.memoryBudget))
+			return new MemoryContainer((int) size);
+		return new MappedContainer(size);
+	}
+
+	/**
+	 * Reclaim the storage of collected containers that were not pooled.
+	 */
+	void reclaim() {
+		Reference<? extends ByteBufferDataContainer> ref;
+		while ((ref = collected.poll()) != null) {
+			Reclaim reclaim = (Reclaim) ref;
+			if (unreclaimed.remove(reclaim))
+				reclaim.run();
+		}
+	}
+
+	/**
+	 * Reclaim the storage of the given container once it is collected.
+	 * @param container	storage not pooled
+	 * @param reserved	memory reserved for it, 0 if none
+	 * @param file		file holding it, null if none
+	 */
+	private void reclaimOnCollection(ByteBufferDataContainer container, long reserved, File file) {
+		unreclaimed.add(new Reclaim(container, collected, reserved, file));
+	}
+
+	/**
+	 * Write an outgoing payload to a temporary file, for the stack to stream from.
+	 * @param content the payload, consumed
+	 * @return the file, to be deleted once sent
+	 * @throws IOException could not write the file
+	 */
+	File spill(ByteBuffer content) throws IOException {
+		File file = File.createTempFile("msrp", ".out", spillDirectory);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel channel = out.getChannel();
+			while (content.hasRemaining())
+				channel.write(content);
+		} catch (IOException e) {
+			out.close();
+			file.delete();
+			throw e;
+		}
+		out.close();
+		return file;
+	}
+
+	private boolean reserve(long size, long memoryBudget) {
+		long inUse;
+		do {
+			inUse = memoryInUse.get();
+			if (inUse + size > memoryBudget)
+				return false;
+		} while (!memoryInUse.compareAndSet(inUse, inUse + size));
+		return true;
+	}
+
+	/**
+	 * The size limits in force.
+	 */
+	private static final class Limits {
+		final long maxSize;
+		final int memoryThreshold;
+		final long memoryBudget;
+
+		Limits(long maxSize, int memoryThreshold, long memoryBudget) {
+			this.maxSize = maxSize;
+			this.memoryThreshold = memoryThreshold;
+			this.memoryBudget = memoryBudget;
+		}
+	}
+
+	/**
+	 * Frees what a collected container, that was not pooled, held on to.
+	 */
+	private final class Reclaim extends PhantomReference<ByteBufferDataContainer> {
+		private final long reserved;
+		private final File file;
+
+		Reclaim(ByteBufferDataContainer container, ReferenceQueue<ByteBufferDataContainer> queue,
+				long reserved, File file) {
+			super(container, queue);
+			this.reserved = reserved;
+			this.file = file;
+		}
+
+		void run() {
+			if (reserved > 0)
+				memoryInUse.addAndGet(-reserved);
+			if (file != null)
+				file.delete();
+		}
+	}
+
+	/**
+	 * A message kept in memory.
+	 */
+	private final class MemoryContainer extends ByteBufferDataContainer {
+		private final ByteBuffer storage;
+		private final int reserved;
+
+		MemoryContainer(int size) {
+			this(size, pool == null ? ByteBuffer.allocate(size) : pool.acquire(size));
+		}
+
+		private MemoryContainer(int size, ByteBuffer storage) {
+			super(view(storage, size), pool != null);
+			this.storage = storage;
+			this.reserved = size;
+			if (pool == null)
+				reclaimOnCollection(this, size, null);
+		}
+
+		@Override
+		protected void released() {
+			memoryInUse.addAndGet(-reserved);
+			if (pool != null)
+				pool.release(storage);
+		}
+	}
+
+	/**
+	 * A message spilled to a memory-mapped temporary file.
+	 */
+	private final class MappedContainer extends ByteBufferDataContainer {
+		private final File file;
+
+		MappedContainer(long size) throws IOException {
+			this(File.createTempFile("msrp", ".msg", spillDirectory), size);
+		}
+
+		private MappedContainer(File file, long size) throws IOException {
+			super(map(file, size), pool != null);
+			this.file = file;
+			if (pool == null)
+				reclaimOnCollection(this, 0L, file);
+		}
+
+		@Override
+		protected void released() {
+			// mapping is unmapped once collected.
+			file.delete();
+		}
+	}
+
+	private static ByteBuffer view(ByteBuffer storage, int size) {
+		ByteBuffer view = storage.duplicate();
+		view.limit(size);
+		return view.slice();
+	}
+
+	private static MappedByteBuffer map(File file, long size) throws IOException {
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Message too large to map: " + size);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(size);
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} catch (IOException e) {
+			file.delete();
+			throw e;
+		} finally {
+			raf.close();
+		}
+	}
+}
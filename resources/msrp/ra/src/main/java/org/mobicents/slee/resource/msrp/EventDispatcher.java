@@ -0,0 +1,214 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.slee.facilities.Tracer;
+
+/**
+ * Takes event delivery off the MSRP stack's I/O threads.
+ * <BR>
+ * Every session gets its own bounded FIFO queue. A pool of dispatcher threads
+ * drains these queues into the SLEE, never running two tasks of the same
+ * session at the same time. Thus the order of events within a session is
+ * preserved, while a session that is slow to route cannot hold up the
+ * others.
+ * <BR>
+ * Queuing never blocks: when a session's queue is full the event is dropped
+ * right away, as the caller is the stack's I/O thread.
+ *
+ * @author tuijldert
+ */
+class EventDispatcher {
+	/** max. number of tasks of one session handled before yielding the thread */
+	private static final int BATCH_SIZE = 32;
+	/** min. time (ms) between two warnings about dropped events */
+	private static final long WARN_INTERVAL = 10000L;
+
+	private final Tracer trc;
+	private final ThreadPoolExecutor executor;
+	private volatile int queueSize;
+	private final AtomicLong lastWarning = new AtomicLong();
+	private final AtomicInteger unreported = new AtomicInteger();
+
+	private final ConcurrentHashMap<MsrpActivityHandle, SessionQueue> queues =
+			new ConcurrentHashMap<MsrpActivityHandle, SessionQueue>();
+
+	/**
+	 * @param trc			where to trace to
+	 * @param name			used to name the dispatcher threads
+	 * @param threads		number of dispatcher threads
+	 * @param queueSize		max. number of pending tasks per session
+	 */
+	EventDispatcher(Tracer trc, String name, int threads, int queueSize) {
+		this.trc = trc;
+		this.queueSize = queueSize;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new RaThreadFactory(name, "dispatcher"));
+	}
+
+	/**
+	 * Change the settings while running.
+	 * A new queue size only applies to sessions started afterwards.
+	 * @param threads		number of dispatcher threads
+	 * @param queueSize		max. number of pending tasks per session
+	 */
+	synchronized void reconfigure(int threads, int queueSize) {
+		this.queueSize = queueSize;
+		// keep core <= max at all times.
+		if (threads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		} else {
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+	}
+
+	/**
+	 * Queue a task for the given session.
+	 * @param handle	identifies the session
+	 * @param task		what to execute
+	 * @return false if the task was dropped
+	 */
+	boolean dispatch(MsrpActivityHandle handle, Runnable task) {
+		SessionQueue queue = queues.get(handle);
+		if (queue == null) {
+			queue = new SessionQueue(handle);
+			SessionQueue other = queues.putIfAbsent(handle, queue);
+			if (other != null)
+				queue = other;
+		}
+		return queue.offer(task);
+	}
+
+	/**
+	 * Queue the last task for the given session: the session's queue is
+	 * released once it has been executed. The task is never dropped: when
+	 * it cannot be queued, it is executed right away.
+	 * @param handle	identifies the session
+	 * @param task		what to execute
+	 */
+	void dispatchLast(final MsrpActivityHandle handle, final Runnable task) {
+		boolean queued = dispatch(handle, new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					queues.remove(handle);
+				}
+			}
+		});
+		if (!queued) {
+			queues.remove(handle);
+			task.run();
+		}
+	}
+
+	/**
+	 * Stop accepting tasks and wait a while for pending ones to complete.
+	 * @param timeout	max. time (ms) to wait.
+	 */
+	void shutdown(long timeout) {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+				executor.shutdownNow();
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		queues.clear();
+	}
+
+	/**
+	 * Warn about a dropped event, at most once per WARN_INTERVAL: a full
+	 * queue drops events in bursts, which would flood the log otherwise.
+	 * @param handle	the session the event was for
+	 */
+	private void dropped(MsrpActivityHandle handle) {
+		unreported.incrementAndGet();
+		long now = System.currentTimeMillis();
+		long last = lastWarning.get();
+		if (now - last < WARN_INTERVAL || !lastWarning.compareAndSet(last, now))
+			return;
+		int count = unreported.getAndSet(0);
+		trc.warning("Event queue full, dropped event for session " + handle +
+				(count > 1 ? " (" + count + " events dropped since last warning)" : ""));
+	}
+
+	/**
+	 * The pending tasks of a single session.
+	 */
+	private final class SessionQueue implements Runnable {
+		private final MsrpActivityHandle handle;
+		private final LinkedBlockingQueue<Runnable> tasks;
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		SessionQueue(MsrpActivityHandle handle) {
+			this.handle = handle;
+			this.tasks = new LinkedBlockingQueue<Runnable>(queueSize);
+		}
+
+		boolean offer(Runnable task) {
+			if (tasks.offer(task))
+				return schedule();
+			dropped(handle);
+			return false;
+		}
+
+		private boolean schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					scheduled.set(false);
+					trc.warning("Dispatcher stopped, dropped events for session " + handle);
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public void run() {
+			Runnable task;
+			for (int i = 0; i < BATCH_SIZE && (task = tasks.poll()) != null; i++) {
+				try {
+					task.run();
+				} catch (Throwable e) {
+					trc.severe("Failed to dispatch event for session " + handle, e);
+				}
+			}
+			scheduled.set(false);
+			// more arrived meanwhile (or batch exhausted): go round again.
+			if (!tasks.isEmpty())
+				schedule();
+		}
+	}
+}
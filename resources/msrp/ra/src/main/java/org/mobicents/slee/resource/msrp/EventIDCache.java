@@ -21,8 +21,14 @@
 
 package org.mobicents.slee.resource.msrp;
 
-import java.util.concurrent.ConcurrentHashMap;
-
+import javax.net.msrp.ConnectionLostEvent;
+import javax.net.msrp.IncomingAliveMessage;
+import javax.net.msrp.IncomingMessage;
+import javax.net.msrp.IncomingStatusMessage;
+import javax.net.msrp.NicknameEvent;
+import javax.net.msrp.ReportEvent;
+import javax.net.msrp.UpdateSendEvent;
+import javax.net.msrp.events.MessageAbortedEvent;
 import javax.slee.EventTypeID;
 import javax.slee.facilities.EventLookupFacility;
 import javax.slee.facilities.Tracer;
@@ -30,6 +36,9 @@ import javax.slee.resource.FireableEventType;
 
 /**
  * Caches event types for MSRP RA requests
+ * <BR>
+ * Keyed on the event class, so resolving the type of an event already
+ * seen allocates nothing.
  */
 public class EventIDCache {
 
@@ -37,30 +46,93 @@ public class EventIDCache {
 	public static final String VENDOR = "net.java.slee";
 	public static final String VERSION = "1.0";
 
-	private ConcurrentHashMap<String, FireableEventType> eventTypes = new ConcurrentHashMap<String, FireableEventType>();
+	/** the event classes declared in the event-jar */
+	private static final Class<?>[] EVENT_CLASSES = {
+		IncomingMessage.class, IncomingStatusMessage.class, IncomingAliveMessage.class,
+		ReportEvent.class, ConnectionLostEvent.class, MessageAbortedEvent.class,
+		NicknameEvent.class, UpdateSendEvent.class
+	};
+
+	private final ClassValue<EventType> eventTypes = new ClassValue<EventType>() {
+		@Override
+		protected EventType computeValue(Class<?> eventClass) {
+			return lookup(eventClass);
+		}
+	};
 
 	private final Tracer trc;
+	private final EventLookupFacility eventLookupFacility;
+	private final EventIDFilter eventIDFilter;
 
-	public EventIDCache(Tracer trc) {
+	public EventIDCache(Tracer trc, EventLookupFacility eventLookupFacility, EventIDFilter eventIDFilter) {
 		this.trc = trc;
+		this.eventLookupFacility = eventLookupFacility;
+		this.eventIDFilter = eventIDFilter;
 	}
 
 	public static String getEventName(Object event) {
-		return (new StringBuilder(EVENT_PREFIX_REQUEST).append(event.getClass().getSimpleName())).toString();
+		return getEventName(event.getClass());
+	}
+
+	private static String getEventName(Class<?> eventClass) {
+		return EVENT_PREFIX_REQUEST + eventClass.getSimpleName();
+	}
+
+	/**
+	 * Resolve the types of all events declared by the RA type up front.
+	 */
+	public void prewarm() {
+		for (Class<?> eventClass : EVENT_CLASSES) {
+			getEventType(eventClass);
+		}
+	}
+
+	/**
+	 * @param event the event to be fired
+	 * @return its type, null if it cannot be fired.
+	 */
+	public EventType getEventType(Object event) {
+		return getEventType(event.getClass());
 	}
 
-	public FireableEventType getEventType(EventLookupFacility eventLookupFacility, Object event) {
-		String eventName = getEventName(event);
-		FireableEventType eventType = eventTypes.get(eventName); 
+	private EventType getEventType(Class<?> eventClass) {
+		EventType eventType = eventTypes.get(eventClass);
 		if (eventType == null) {
-			try {
-				eventType = eventLookupFacility.getFireableEventType(new EventTypeID(eventName, VENDOR, VERSION));
-			} catch (Throwable e) {
-				trc.severe("Failed to obtain fireable event type for event with name " + eventName, e);
+			// do not remember failures, try again next time.
+			eventTypes.remove(eventClass);
+		}
+		return eventType;
+	}
+
+	private EventType lookup(Class<?> eventClass) {
+		String eventName = getEventName(eventClass);
+		try {
+			EventTypeID eventTypeID = new EventTypeID(eventName, VENDOR, VERSION);
+			FireableEventType fireableEventType = eventLookupFacility.getFireableEventType(eventTypeID);
+			if (fireableEventType == null) {
+				trc.severe("Unknown event type for event with name " + eventName);
 				return null;
 			}
-			eventTypes.put(eventName, eventType);
+			return new EventType(fireableEventType, eventIDFilter.getSlot(eventTypeID));
+		} catch (Throwable e) {
+			trc.severe("Failed to obtain fireable event type for event with name " + eventName, e);
+			return null;
 		}
-		return eventType;	
 	}
-}
\ No newline at end of file
+
+	/**
+	 * A resolved event type, along with its slot in the {@link EventIDFilter}.
+	 */
+	public static final class EventType {
+		private final FireableEventType fireableEventType;
+		private final EventIDFilter.Slot slot;
+
+		private EventType(FireableEventType fireableEventType, EventIDFilter.Slot slot) {
+			this.fireableEventType = fireableEventType;
+			this.slot = slot;
+		}
+
+		public FireableEventType getFireableEventType() { return fireableEventType; }
+		public EventIDFilter.Slot getSlot() { return slot; }
+	}
+}
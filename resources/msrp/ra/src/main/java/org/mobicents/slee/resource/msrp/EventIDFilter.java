@@ -20,9 +20,11 @@
  */
 package org.mobicents.slee.resource.msrp;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.slee.EventTypeID;
 import javax.slee.ServiceID;
@@ -30,20 +32,94 @@ import javax.slee.resource.FireableEventType;
 import javax.slee.resource.ReceivableService;
 import javax.slee.resource.ReceivableService.ReceivableEvent;
 
-public class EventIDFilter { 			//not used
+/**
+ * Filters events no active service is interested in, counting what it drops.
+ * <BR>
+ * Every active service owns a bit, every known event type a slot. The
+ * routing table maps each slot to the bitset of services receiving that
+ * event type. The table is immutable and replaced as a whole on service
+ * (de)activation, so checking an event takes a single volatile read and
+ * never contends with the (rare) updates.
+ */
+public class EventIDFilter {
+	/**
+	 * Holds mappings eventTypeID --> slot, slots are never reused
+	 */
+	private final ConcurrentHashMap<EventTypeID, Slot> eventID2slot =
+			new ConcurrentHashMap<EventTypeID, Slot>(31);
+	private final AtomicInteger slotCount = new AtomicInteger();
+
 	/**
-	 * Holds mappings eventTypeID --> Set(ServiceID) which are interested in receiving event
+	 * The current routing table, only replaced while holding the filter's lock
 	 */
-	private final ConcurrentHashMap<EventTypeID, Set<ServiceID>> eventID2serviceIDs =
-			new ConcurrentHashMap<EventTypeID, Set<ServiceID>>(31);
+	private volatile RoutingTable table = RoutingTable.EMPTY;
 
 	/**
 	 * checks if event should be filtered or not
 	 * @param eventType
 	 * @return true is event is to be filtered, false otherwise
 	 */
-	public boolean filterEvent(FireableEventType eventType) {		
-		return !eventID2serviceIDs.containsKey(eventType.getEventType());
+	public boolean filterEvent(FireableEventType eventType) {
+		return filterEvent(getSlot(eventType.getEventType()));
+	}
+
+	/**
+	 * checks if event should be filtered or not
+	 * @param slot the slot of the event type, see {@link #getSlot(EventTypeID)}
+	 * @return true is event is to be filtered, false otherwise
+	 */
+	public boolean filterEvent(Slot slot) {
+		if (table.isReceived(slot.index))
+			return false;
+		slot.filtered.increment();
+		return true;
+	}
+
+	/**
+	 * @param eventTypeID the event type
+	 * @return the slot of the event type, assigned on first use
+	 */
+	public Slot getSlot(EventTypeID eventTypeID) {
+		Slot slot = eventID2slot.get(eventTypeID);
+		if (slot == null) {
+			slot = new Slot(eventTypeID, slotCount.getAndIncrement());
+			Slot anotherSlot = eventID2slot.putIfAbsent(eventTypeID, slot);
+			if (anotherSlot != null) {
+				slot = anotherSlot;
+			}
+		}
+		return slot;
+	}
+
+	/**
+	 * @param eventTypeID the event type
+	 * @return number of events of given type filtered so far
+	 */
+	public long getFilteredCount(EventTypeID eventTypeID) {
+		Slot slot = eventID2slot.get(eventTypeID);
+		return slot == null ? 0L : slot.filtered.sum();
+	}
+
+	/**
+	 * @return number of events filtered so far, per event type
+	 */
+	public Map<EventTypeID, Long> getFilteredCounts() {
+		Map<EventTypeID, Long> counts = new HashMap<EventTypeID, Long>();
+		for (Slot slot : eventID2slot.values()) {
+			counts.put(slot.eventTypeID, slot.filtered.sum());
+		}
+		return counts;
+	}
+
+	/**
+	 * @return number of events fired so far, per event type
+	 */
+	public Map<EventTypeID, Long> getFiredCounts() {
+		Map<EventTypeID, Long> counts = new HashMap<EventTypeID, Long>();
+		for (Slot slot : eventID2slot.values()) {
+			counts.put(slot.eventTypeID, slot.fired.sum());
+		}
+		return counts;
 	}
 
 	/**
@@ -54,19 +130,14 @@ public class EventIDFilter { 			//not used
 	 * @param receivableService
 	 */
 	public void serviceActive(ReceivableService receivableService) {
-		for (ReceivableEvent receivableEvent : receivableService.getReceivableEvents()) {
-			Set<ServiceID> servicesReceivingEvent = eventID2serviceIDs.get(receivableEvent.getEventType());
-			if (servicesReceivingEvent == null) {
-				servicesReceivingEvent = new HashSet<ServiceID>();
-				Set<ServiceID> anotherSet = eventID2serviceIDs.putIfAbsent(receivableEvent.getEventType(), servicesReceivingEvent);
-				if (anotherSet != null) {
-					servicesReceivingEvent = anotherSet;
-				}
-			}
-			synchronized (servicesReceivingEvent) {
-				servicesReceivingEvent.add(receivableService.getService());
-			}
-		}		
+		ReceivableEvent[] receivableEvents = receivableService.getReceivableEvents();
+		int[] slots = new int[receivableEvents.length];
+		for (int i = 0; i < receivableEvents.length; i++) {
+			slots[i] = getSlot(receivableEvents[i].getEventType()).index;
+		}
+		synchronized (this) {
+			table = table.withService(receivableService.getService(), slots);
+		}
 	}
 
 	/**
@@ -77,14 +148,9 @@ public class EventIDFilter { 			//not used
 	 * @param receivableService
 	 */
 	public void serviceInactive(ReceivableService receivableService) {
-		for (ReceivableEvent receivableEvent : receivableService.getReceivableEvents()) {
-			Set<ServiceID> servicesReceivingEvent = eventID2serviceIDs.get(receivableEvent.getEventType());
-			if (servicesReceivingEvent != null) {
-				synchronized (servicesReceivingEvent) {
-					servicesReceivingEvent.remove(receivableService.getService());
-				}
-			}
-		}		
+		synchronized (this) {
+			table = table.withoutService(receivableService.getService());
+		}
 	}
 
 	/**
@@ -94,4 +160,108 @@ public class EventIDFilter { 			//not used
 	public void serviceStopping(ReceivableService receivableService) {
 		// do nothing		
 	}
+
+	/**
+	 * A known event type.
+	 */
+	public static final class Slot {
+		private final EventTypeID eventTypeID;
+		private final int index;
+		private final StripedCounter filtered = new StripedCounter();
+		private final StripedCounter fired = new StripedCounter();
+
+		private Slot(EventTypeID eventTypeID, int index) {
+			this.eventTypeID = eventTypeID;
+			this.index = index;
+		}
+
+		public EventTypeID getEventTypeID() { return eventTypeID; }
+
+		/** count an event of this type handed to the SLEE */
+		void fired() { fired.increment(); }
+	}
+
+	/**
+	 * Immutable mapping of event type slots to the bitset of services receiving them.
+	 */
+	private static final class RoutingTable {
+		static final RoutingTable EMPTY =
+				new RoutingTable(new HashMap<ServiceID, Integer>(), new long[0][]);
+
+		/** the bit each active service owns */
+		private final Map<ServiceID, Integer> serviceBits;
+		/** per slot: the services receiving it, null if none ever did */
+		private final long[][] receivers;
+
+		private RoutingTable(Map<ServiceID, Integer> serviceBits, long[][] receivers) {
+			this.serviceBits = serviceBits;
+			this.receivers = receivers;
+		}
+
+		boolean isReceived(int slot) {
+			if (slot >= receivers.length)
+				return false;
+			long[] words = receivers[slot];
+			if (words != null) {
+				for (long word : words) {
+					if (word != 0L)
+						return true;
+				}
+			}
+			return false;
+		}
+
+		RoutingTable withService(ServiceID service, int[] slots) {
+			Map<ServiceID, Integer> bits = new HashMap<ServiceID, Integer>(serviceBits);
+			Integer bit = bits.get(service);
+			if (bit == null) {
+				bit = firstFreeBit();
+				bits.put(service, bit);
+			}
+			int length = receivers.length;
+			for (int slot : slots) {
+				length = Math.max(length, slot + 1);
+			}
+			long[][] newReceivers = new long[length][];
+			System.arraycopy(receivers, 0, newReceivers, 0, receivers.length);
+			int word = bit >>> 6;
+			for (int slot : slots) {
+				long[] words = newReceivers[slot];
+				long[] newWords = new long[Math.max(word + 1, words == null ? 0 : words.length)];
+				if (words != null)
+					System.arraycopy(words, 0, newWords, 0, words.length);
+				newWords[word] |= 1L << bit;
+				newReceivers[slot] = newWords;
+			}
+			return new RoutingTable(bits, newReceivers);
+		}
+
+		RoutingTable withoutService(ServiceID service) {
+			Integer bit = serviceBits.get(service);
+			if (bit == null)
+				return this;
+			Map<ServiceID, Integer> bits = new HashMap<ServiceID, Integer>(serviceBits);
+			bits.remove(service);
+			long[][] newReceivers = new long[receivers.length][];
+			int word = bit >>> 6;
+			long mask = 1L << bit;
+			for (int slot = 0; slot < receivers.length; slot++) {
+				long[] words = receivers[slot];
+				if (words != null && word < words.length && (words[word] & mask) != 0L) {
+					words = words.clone();
+					words[word] &= ~mask;
+				}
+				newReceivers[slot] = words;
+			}
+			return new RoutingTable(bits, newReceivers);
+		}
+
+		private int firstFreeBit() {
+			BitSet used = new BitSet();
+			for (Integer bit : serviceBits.values()) {
+				used.set(bit);
+			}
+			return used.nextClearBit(0);
+		}
+	}
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts durations in power-of-2 microsecond buckets.
+ * <BR>
+ * Bucket 0 holds durations below 1 &micro;s, bucket <tt>i</tt> those
+ * below 2<sup>i</sup> &micro;s and the last one everything longer.
+ *
+ * @author tuijldert
+ */
+final class LatencyHistogram {
+	/** the last bucket starts at 2^(BUCKETS-2) us, about 4 s */
+	private static final int BUCKETS = 24;
+
+	private final StripedCounter[] buckets = new StripedCounter[BUCKETS];
+
+	LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++)
+			buckets[i] = new StripedCounter();
+	}
+
+	/**
+	 * @param nanos duration to count
+	 */
+	void record(long nanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		int bucket = micros <= 0L ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+		buckets[Math.min(bucket, BUCKETS - 1)].increment();
+	}
+
+	/**
+	 * @return the count of each bucket.
+	 */
+	long[] getCounts() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] = buckets[i].sum();
+		return counts;
+	}
+
+	/**
+	 * @return a description of each bucket.
+	 */
+	static String[] getLabels() {
+		String[] labels = new String[BUCKETS];
+		for (int i = 0; i < BUCKETS - 1; i++)
+			labels[i] = "<" + (1L << i) + "us";
+		labels[BUCKETS - 1] = ">=" + (1L << (BUCKETS - 2)) + "us";
+		return labels;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the local address a new MSRP session is bound to.
+ * <BR>
+ * Configured by <tt>slee.resource.msrp.listener.strategy</tt>, either as
+ * <tt>roundRobin</tt>, <tt>leastSessions</tt> or the name of a class
+ * implementing this interface with a public no-arg constructor.
+ * One instance is used per RA entity, concurrently.
+ *
+ * @author tuijldert
+ */
+public interface ListeningPointSelector {
+
+	/**
+	 * @param points	the configured listening points, never empty
+	 * @return the one to bind the next session to
+	 */
+	MsrpListeningPoint select(MsrpListeningPoint[] points);
+
+	/**
+	 * Hands out the listening points in turn.
+	 */
+	public static final class RoundRobin implements ListeningPointSelector {
+		private final AtomicInteger next = new AtomicInteger();
+
+		public MsrpListeningPoint select(MsrpListeningPoint[] points) {
+			return points[(next.getAndIncrement() & Integer.MAX_VALUE) % points.length];
+		}
+	}
+
+	/**
+	 * Hands out the listening point with the fewest active sessions.
+	 */
+	public static final class LeastSessions implements ListeningPointSelector {
+
+		public MsrpListeningPoint select(MsrpListeningPoint[] points) {
+			MsrpListeningPoint least = points[0];
+			int sessions = least.getSessions();
+			for (int i = 1; i < points.length; i++) {
+				int n = points[i].getSessions();
+				if (n < sessions) {
+					least = points[i];
+					sessions = n;
+				}
+			}
+			return least;
+		}
+	}
+}
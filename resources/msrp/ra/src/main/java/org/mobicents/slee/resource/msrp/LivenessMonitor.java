@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+/**
+ * Watches the traffic of MSRP sessions, so applications need no timers of
+ * their own to detect dead sessions.
+ * <BR>
+ * A session that neither received nor sent anything for the keepalive
+ * interval is sent a bodiless SEND. A session that received nothing for
+ * the idle timeout is considered dead: the RA reports the connection lost,
+ * once, and closes the session. When keepalives are sent, a quiet peer is
+ * not dead as long as it answers them: the idle timeout applies once a
+ * keepalive failed since the last incoming traffic, or counts from the
+ * oldest keepalive that got no answer (its report or any other traffic).
+ * <BR>
+ * Sessions just record when they last saw traffic. Each has one check on
+ * the timing wheel, which re-arms itself for the next moment something
+ * could be due. Both intervals may be changed at any time; 0 disables them.
+ *
+ * @author tuijldert
+ */
+class LivenessMonitor {
+	/** min. time (ms) between two checks of a session */
+	private static final long MIN_CHECK = 100L;
+	/** how often (ms) to look again when liveness checks are disabled */
+	private static final long RECHECK = 10000L;
+
+	private final MsrpResourceAdaptor ra;
+	private final TimingWheel wheel;
+
+	private volatile long keepaliveInterval;
+	private volatile long idleTimeout;
+
+	/**
+	 * @param ra	the RA the sessions belong to
+	 * @param wheel	runs the checks
+	 */
+	LivenessMonitor(MsrpResourceAdaptor ra, TimingWheel wheel) {
+		this.ra = ra;
+		this.wheel = wheel;
+	}
+
+	/**
+	 * @param keepaliveInterval	time (ms) without traffic before sending a keepalive, 0 for none
+	 * @param idleTimeout		time (ms) without incoming traffic before giving up on a session, 0 for never
+	 */
+	void setIntervals(long keepaliveInterval, long idleTimeout) {
+		this.keepaliveInterval = keepaliveInterval;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Start watching a new session.
+	 * @param session the session
+	 */
+	void watch(BasicMsrpSession session) {
+		session.setLivenessCheck(wheel.schedule(new Check(session),
+				nextCheck(0L, untilIdle(session, System.currentTimeMillis()))));
+	}
+
+	/**
+	 * @param sinceTraffic	time (ms) since any traffic
+	 * @param untilIdle		time (ms) until the session is idle
+	 * @return time (ms) until something may be due
+	 */
+	private long nextCheck(long sinceTraffic, long untilIdle) {
+		long keepalive = keepaliveInterval;
+		long next = Math.min(RECHECK, untilIdle);
+		if (keepalive > 0L)
+			next = Math.min(next, keepalive - sinceTraffic);
+		return Math.max(next, MIN_CHECK);
+	}
+
+	/**
+	 * Without keepalives, or once one failed since the last incoming traffic,
+	 * the idle timeout counts from that traffic. Otherwise it counts from the
+	 * oldest unanswered keepalive; with all answered the session is not idle.
+	 * @param session	the session
+	 * @param now		the current time (ms)
+	 * @return time (ms) until the session is idle, Long.MAX_VALUE if it is not going to be
+	 */
+	private long untilIdle(BasicMsrpSession session, long now) {
+		long idle = idleTimeout;
+		if (idle <= 0L)
+			return Long.MAX_VALUE;
+		long lastReceived = session.getLastReceived();
+		if (keepaliveInterval <= 0L || session.getKeepaliveFailed() >= lastReceived)
+			return idle - (now - lastReceived);
+		long keepaliveSent = session.getKeepaliveSent();
+		if (keepaliveSent > lastReceived)
+			return idle - (now - keepaliveSent);
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * The liveness check of a single session.
+	 */
+	private final class Check implements TimingWheel.Task {
+		private final BasicMsrpSession session;
+
+		Check(BasicMsrpSession session) {
+			this.session = session;
+		}
+
+		public void expired(TimingWheel.Timeout timeout) {
+			long now = System.currentTimeMillis();
+			long sinceReceived = now - session.getLastReceived();
+			if (untilIdle(session, now) <= 0L) {
+				ra.sessionIdle(session, sinceReceived);
+				return;
+			}
+			long keepalive = keepaliveInterval;
+			long sinceTraffic = Math.min(sinceReceived, now - session.getLastSent());
+			if (keepalive > 0L && sinceTraffic >= keepalive) {
+				if (session.sendKeepalive())
+					ra.getMetrics().keepaliveSent();
+				sinceTraffic = 0L;
+			}
+			session.setLivenessCheck(wheel.schedule(this, nextCheck(sinceTraffic, untilIdle(session, now))));
+		}
+	}
+}
@@ -49,4 +49,9 @@ public class MsrpActivityHandle implements ActivityHandle {
 			return false;
 		}
 	}
+
+	@Override
+	public String toString() {
+		return id;
+	}
 }
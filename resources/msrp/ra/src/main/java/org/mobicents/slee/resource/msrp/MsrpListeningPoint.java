@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local address MSRP sessions are bound to, with the number of sessions
+ * currently using it.
+ *
+ * @author tuijldert
+ */
+public final class MsrpListeningPoint {
+	private final InetAddress address;
+	private final AtomicInteger sessions = new AtomicInteger();
+
+	MsrpListeningPoint(InetAddress address) {
+		this.address = address;
+	}
+
+	/**
+	 * @return the local address to bind sessions to.
+	 */
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return number of active sessions bound to this address.
+	 */
+	public int getSessions() {
+		return sessions.get();
+	}
+
+	void sessionStarted() {
+		sessions.incrementAndGet();
+	}
+
+	void sessionEnded() {
+		sessions.decrementAndGet();
+	}
+
+	@Override
+	public String toString() {
+		return address.getHostAddress();
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.slee.EventTypeID;
+
+/**
+ * Counts what an MSRP RA entity does, for {@link MsrpRaMetricsMXBean}.
+ * <BR>
+ * All counters are striped: recording on the event paths never contends,
+ * the cost of adding things up is paid when reading.
+ *
+ * @author tuijldert
+ */
+class MsrpRaMetrics implements MsrpRaMetricsMXBean {
+
+	/**
+	 * Why an incoming message was not accepted.
+	 */
+	enum Rejection {
+		/** the message does not belong to the session */
+		UNKNOWN_SESSION,
+		/** larger than the configured maximum */
+		TOO_LARGE,
+		/** no storage could be provided */
+		NO_STORAGE,
+		/** too many events of the session are still being processed */
+		BACKPRESSURE
+	}
+
+	private final MsrpResourceAdaptor ra;
+	private final EventIDFilter filter;
+
+	private final StripedCounter sessionsCreated = new StripedCounter();
+	private final StripedCounter sessionsEnded = new StripedCounter();
+	private final Rate sessionsCreatedRate = new Rate(sessionsCreated);
+	private final Rate sessionsEndedRate = new Rate(sessionsEnded);
+	private final StripedCounter messagesIn = new StripedCounter();
+	private final StripedCounter bytesIn = new StripedCounter();
+	private final StripedCounter messagesOut = new StripedCounter();
+	private final StripedCounter bytesOut = new StripedCounter();
+	private final LatencyHistogram fireEventLatency = new LatencyHistogram();
+	private final StripedCounter[] rejections = new StripedCounter[Rejection.values().length];
+	private final StripedCounter connectionsLost = new StripedCounter();
+	private final StripedCounter keepalivesSent = new StripedCounter();
+	private final StripedCounter sessionsIdle = new StripedCounter();
+	private final StripedCounter sessionsClosed = new StripedCounter();
+	private final StripedCounter sessionsForced = new StripedCounter();
+	private final StripedCounter eventsDropped = new StripedCounter();
+
+	MsrpRaMetrics(MsrpResourceAdaptor ra, EventIDFilter filter) {
+		this.ra = ra;
+		this.filter = filter;
+		for (int i = 0; i < rejections.length; i++)
+			rejections[i] = new StripedCounter();
+	}
+
+	// recording -----------------------
+	void sessionCreated() {
+		sessionsCreated.increment();
+	}
+
+	void sessionEnded() {
+		sessionsEnded.increment();
+	}
+
+	void messageReceived(long size) {
+		messagesIn.increment();
+		if (size > 0)
+			bytesIn.add(size);
+	}
+
+	void messageSent(long size) {
+		messagesOut.increment();
+		if (size > 0)
+			bytesOut.add(size);
+	}
+
+	/**
+	 * @param slot	type of the event fired
+	 * @param nanos	time taken by the SLEE to accept it
+	 */
+	void eventFired(EventIDFilter.Slot slot, long nanos) {
+		slot.fired();
+		fireEventLatency.record(nanos);
+	}
+
+	void rejected(Rejection reason) {
+		rejections[reason.ordinal()].increment();
+	}
+
+	void eventDropped() {
+		eventsDropped.increment();
+	}
+
+	void connectionLost() {
+		connectionsLost.increment();
+	}
+
+	void keepaliveSent() {
+		keepalivesSent.increment();
+	}
+
+	void sessionIdle() {
+		sessionsIdle.increment();
+	}
+
+	void sessionsClosed(int clean, int forced) {
+		sessionsClosed.add(clean);
+		sessionsForced.add(forced);
+	}
+
+	// reading -------------------------
+	public int getActiveSessions() {
+		return ra.getActiveSessionCount();
+	}
+
+	public long getSessionsCreated() {
+		return sessionsCreated.sum();
+	}
+
+	public long getSessionsEnded() {
+		return sessionsEnded.sum();
+	}
+
+	public double getSessionsCreatedPerSecond() {
+		return sessionsCreatedRate.get();
+	}
+
+	public double getSessionsEndedPerSecond() {
+		return sessionsEndedRate.get();
+	}
+
+	public long getMessagesIn() {
+		return messagesIn.sum();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	public long getMessagesOut() {
+		return messagesOut.sum();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	public Map<String, Long> getEventsFired() {
+		return byName(filter.getFiredCounts());
+	}
+
+	public Map<String, Long> getEventsFiltered() {
+		return byName(filter.getFilteredCounts());
+	}
+
+	public long getEventsDropped() {
+		return eventsDropped.sum();
+	}
+
+	public String[] getFireEventLatencyBuckets() {
+		return LatencyHistogram.getLabels();
+	}
+
+	public long[] getFireEventLatency() {
+		return fireEventLatency.getCounts();
+	}
+
+	public Map<String, Long> getAcceptRejections() {
+		Map<String, Long> counts = new HashMap<String, Long>();
+		for (Rejection reason : Rejection.values())
+			counts.put(reason.name(), rejections[reason.ordinal()].sum());
+		return counts;
+	}
+
+	public long getConnectionsLost() {
+		return connectionsLost.sum();
+	}
+
+	public long getKeepalivesSent() {
+		return keepalivesSent.sum();
+	}
+
+	public long getSessionsIdle() {
+		return sessionsIdle.sum();
+	}
+
+	public long getSessionsClosedOnShutdown() {
+		return sessionsClosed.sum();
+	}
+
+	public long getSessionsForcedOnShutdown() {
+		return sessionsForced.sum();
+	}
+
+	public Map<String, Integer> getListeningPointSessions() {
+		return ra.getListeningPointSessions();
+	}
+
+	public Map<String, Integer> getPeerSessions() {
+		return ra.getPeerSessions();
+	}
+
+	public long getBufferPoolHits() {
+		BufferPool pool = getBufferPool();
+		return pool == null ? 0L : pool.getHits();
+	}
+
+	public long getBufferPoolMisses() {
+		BufferPool pool = getBufferPool();
+		return pool == null ? 0L : pool.getMisses();
+	}
+
+	public long getBufferPoolOutstanding() {
+		BufferPool pool = getBufferPool();
+		return pool == null ? 0L : pool.getOutstanding();
+	}
+
+	public long getBufferPoolAllocatedBytes() {
+		BufferPool pool = getBufferPool();
+		return pool == null ? 0L : pool.getAllocated();
+	}
+
+	/**
+	 * @return the pool of the RA's storage, null if not pooling or not configured
+	 */
+	private BufferPool getBufferPool() {
+		DataContainerFactory factory = ra.getDataContainerFactory();
+		return factory == null ? null : factory.getPool();
+	}
+
+	private static Map<String, Long> byName(Map<EventTypeID, Long> counts) {
+		Map<String, Long> named = new HashMap<String, Long>();
+		for (Map.Entry<EventTypeID, Long> count : counts.entrySet())
+			named.put(count.getKey().getName(), count.getValue());
+		return named;
+	}
+
+	/**
+	 * Rate of change of a counter, sampled when read.
+	 */
+	private static final class Rate {
+		private static final long PERIOD = TimeUnit.SECONDS.toNanos(1);
+
+		private final StripedCounter counter;
+		private long sampledAt = System.nanoTime();
+		private long sampled;
+		private double rate;
+
+		Rate(StripedCounter counter) {
+			this.counter = counter;
+		}
+
+		synchronized double get() {
+			long now = System.nanoTime();
+			long elapsed = now - sampledAt;
+			if (elapsed >= PERIOD) {
+				long count = counter.sum();
+				rate = (count - sampled) * (double) PERIOD / elapsed;
+				sampled = count;
+				sampledAt = now;
+			}
+			return rate;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.util.Map;
+
+/**
+ * Management view on the activity of an MSRP RA entity.
+ * <BR>
+ * Registered with the platform MBean server for the lifetime of the RA entity,
+ * as <tt>org.mobicents.slee.resource.msrp:type=MsrpResourceAdaptor,name=&lt;entity name&gt;</tt>.
+ *
+ * @author tuijldert
+ */
+public interface MsrpRaMetricsMXBean {
+
+	/** @return number of sessions currently active */
+	int getActiveSessions();
+
+	/** @return number of sessions created so far */
+	long getSessionsCreated();
+
+	/** @return number of sessions ended so far */
+	long getSessionsEnded();
+
+	/** @return sessions created per second, since the previous reading of at least a second ago */
+	double getSessionsCreatedPerSecond();
+
+	/** @return sessions ended per second, since the previous reading of at least a second ago */
+	double getSessionsEndedPerSecond();
+
+	/** @return number of messages received */
+	long getMessagesIn();
+
+	/** @return number of bytes received in messages */
+	long getBytesIn();
+
+	/** @return number of messages sent */
+	long getMessagesOut();
+
+	/** @return number of bytes sent in messages */
+	long getBytesOut();
+
+	/** @return number of events fired, per event type */
+	Map<String, Long> getEventsFired();
+
+	/** @return number of events dropped because no active service receives them, per event type */
+	Map<String, Long> getEventsFiltered();
+
+	/** @return number of events dropped, incoming messages included, because their session's queue stayed full */
+	long getEventsDropped();
+
+	/** @return the bucket boundaries of {@link #getFireEventLatency()} */
+	String[] getFireEventLatencyBuckets();
+
+	/** @return number of events per time taken to hand them to the SLEE */
+	long[] getFireEventLatency();
+
+	/** @return number of incoming messages rejected, per reason */
+	Map<String, Long> getAcceptRejections();
+
+	/** @return number of sessions that lost their connection */
+	long getConnectionsLost();
+
+	/** @return number of keepalives sent on quiet sessions */
+	long getKeepalivesSent();
+
+	/** @return number of sessions given up on after receiving nothing for the idle timeout */
+	long getSessionsIdle();
+
+	/** @return number of sessions closed in time on deactivation */
+	long getSessionsClosedOnShutdown();
+
+	/** @return number of sessions whose activity was ended regardless on deactivation */
+	long getSessionsForcedOnShutdown();
+
+	/** @return number of active sessions per local address */
+	Map<String, Integer> getListeningPointSessions();
+
+	/** @return number of active sessions per peer (scheme, host and port of the first hop), when peer affinity is on */
+	Map<String, Integer> getPeerSessions();
+
+	/** @return number of incoming messages served from recycled buffers, 0 without memory pooling */
+	long getBufferPoolHits();
+
+	/** @return number of incoming messages for which no recycled buffer was available, 0 without memory pooling */
+	long getBufferPoolMisses();
+
+	/** @return number of pooled buffers held by incoming messages, 0 without memory pooling */
+	long getBufferPoolOutstanding();
+
+	/** @return number of bytes allocated for the buffer pool, 0 without memory pooling */
+	long getBufferPoolAllocatedBytes();
+}
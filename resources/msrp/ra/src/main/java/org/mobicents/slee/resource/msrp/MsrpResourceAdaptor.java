@@ -20,17 +20,33 @@
  */
 package org.mobicents.slee.resource.msrp;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import javax.management.ObjectName;
 import javax.slee.Address;
+import javax.slee.EventTypeID;
 import javax.slee.SLEEException;
 import javax.slee.facilities.EventLookupFacility;
 import javax.slee.facilities.Tracer;
 import javax.slee.resource.ActivityAlreadyExistsException;
 import javax.slee.resource.ActivityHandle;
 import javax.slee.resource.ConfigProperties;
+import javax.slee.resource.EventFlags;
 import javax.slee.resource.FailureReason;
 import javax.slee.resource.FireableEventType;
 import javax.slee.resource.InvalidConfigurationException;
@@ -41,7 +57,15 @@ import javax.slee.resource.ResourceAdaptorContext;
 import javax.slee.resource.SleeEndpoint;
 import javax.slee.resource.StartActivityException;
 
+import javax.net.msrp.ConnectionLostEvent;
+import javax.net.msrp.DataContainer;
+import javax.net.msrp.EventPool;
+import javax.net.msrp.IncomingMessage;
+import javax.net.msrp.Message;
+import javax.net.msrp.ReportEvent;
 import javax.net.msrp.Session;
+import javax.net.msrp.UpdateSendEvent;
+import javax.net.msrp.events.MessageAbortedEvent;
 
 /**
  * A resource adaptor for the MSRP protocol.<BR>
@@ -72,14 +96,145 @@ public class MsrpResourceAdaptor implements ResourceAdaptor {
 	 */
 	private EventIDFilter eventIDFilter;
 
+	/** what this entity does, published through JMX */
+	private MsrpRaMetrics metrics;
+	private ObjectName metricsName;
+
 	private static final String IPADDRESS_CONFIG_PROPERTY = "slee.resource.msrp.ipaddress";
     private static final String DEFAULT_MSRP_IPADDRESS = "0.0.0.0";
+	private static final String STRATEGY_CONFIG_PROPERTY = "slee.resource.msrp.listener.strategy";
+	private static final String DEFAULT_STRATEGY = "roundRobin";
+	private static final String PEER_AFFINITY_CONFIG_PROPERTY = "slee.resource.msrp.listener.peerAffinity";
+	private static final boolean DEFAULT_PEER_AFFINITY = false;
+
+	private static final String DISPATCHER_THREADS_CONFIG_PROPERTY = "slee.resource.msrp.dispatcher.threads";
+	private static final int DEFAULT_DISPATCHER_THREADS = 4;
+	private static final String DISPATCHER_QUEUE_CONFIG_PROPERTY = "slee.resource.msrp.dispatcher.queueSize";
+	private static final int DEFAULT_DISPATCHER_QUEUE = 1000;
+	private static final String PROGRESS_BYTES_CONFIG_PROPERTY = "slee.resource.msrp.progress.bytes";
+	private static final long DEFAULT_PROGRESS_BYTES = 0L;
+	private static final String PROGRESS_INTERVAL_CONFIG_PROPERTY = "slee.resource.msrp.progress.interval";
+	private static final long DEFAULT_PROGRESS_INTERVAL = 0L;
+	private static final String PROGRESS_COMPLETION_CONFIG_PROPERTY = "slee.resource.msrp.progress.completionOnly";
+	private static final boolean DEFAULT_PROGRESS_COMPLETION = false;
+
+	/*
+	 * The default max. size is the one the RA always had, and is below the
+	 * default threshold: out of the box every message is kept in memory, and
+	 * spilling to file only starts once a deployment raises the max. size.
+	 */
+	private static final String MAX_SIZE_CONFIG_PROPERTY = "slee.resource.msrp.message.maxSize";
+	private static final long DEFAULT_MAX_SIZE = 10240L;
+	private static final String MEMORY_THRESHOLD_CONFIG_PROPERTY = "slee.resource.msrp.memory.threshold";
+	private static final int DEFAULT_MEMORY_THRESHOLD = 65536;
+	private static final String MEMORY_BUDGET_CONFIG_PROPERTY = "slee.resource.msrp.memory.budget";
+	private static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+	private static final String MEMORY_POOLING_CONFIG_PROPERTY = "slee.resource.msrp.memory.pooling";
+	private static final boolean DEFAULT_MEMORY_POOLING = false;
+	private static final String SPILL_DIRECTORY_CONFIG_PROPERTY = "slee.resource.msrp.spill.directory";
+
+	private static final String SHUTDOWN_THREADS_CONFIG_PROPERTY = "slee.resource.msrp.shutdown.threads";
+	private static final int DEFAULT_SHUTDOWN_THREADS = 4;
+	private static final String SHUTDOWN_TIMEOUT_CONFIG_PROPERTY = "slee.resource.msrp.shutdown.timeout";
+	private static final long DEFAULT_SHUTDOWN_TIMEOUT = 10000L;
+
+	private static final String KEEPALIVE_INTERVAL_CONFIG_PROPERTY = "slee.resource.msrp.keepalive.interval";
+	private static final long DEFAULT_KEEPALIVE_INTERVAL = 0L;
+	private static final String IDLE_TIMEOUT_CONFIG_PROPERTY = "slee.resource.msrp.idle.timeout";
+	private static final long DEFAULT_IDLE_TIMEOUT = 0L;
+	private static final String BROADCAST_THREADS_CONFIG_PROPERTY = "slee.resource.msrp.broadcast.threads";
+	private static final int DEFAULT_BROADCAST_THREADS = 4;
+	private static final String CONNECT_THREADS_CONFIG_PROPERTY = "slee.resource.msrp.connect.threads";
+	private static final int DEFAULT_CONNECT_THREADS = 4;
+	private static final String SDP_TIMEOUT_CONFIG_PROPERTY = "slee.resource.msrp.connect.sdpTimeout";
+	private static final long DEFAULT_SDP_TIMEOUT = 2000L;
+	private static final String EVENT_POOL_CONFIG_PROPERTY = "slee.resource.msrp.events.poolSize";
+	private static final int DEFAULT_EVENT_POOL = 0;
+	private static final String EVENT_CREDITS_CONFIG_PROPERTY = "slee.resource.msrp.events.credits";
+	private static final int DEFAULT_EVENT_CREDITS = 0;
+	private static final String REPORT_MODE_CONFIG_PROPERTY = "slee.resource.msrp.report.mode";
+	private static final String REPORT_TIMEOUT_CONFIG_PROPERTY = "slee.resource.msrp.report.timeout";
+	private static final long DEFAULT_REPORT_TIMEOUT = 30000L;
+	private static final String LARGE_MESSAGE_CONFIG_PROPERTY = "slee.resource.msrp.send.largeMessageSize";
+	private static final long DEFAULT_LARGE_MESSAGE = 0L;
+	private static final String LARGE_TIMEOUT_CONFIG_PROPERTY = "slee.resource.msrp.send.largeMessageTimeout";
+	private static final long DEFAULT_LARGE_TIMEOUT = 60000L;
+
+	/** how long (ms) to let the dispatcher finish pending events on deactivation */
+	private static final long DISPATCHER_SHUTDOWN_TIMEOUT = 5000L;
+	/** how long (ms) to let broadcasts in progress finish on deactivation */
+	private static final long BROADCAST_SHUTDOWN_TIMEOUT = 5000L;
+	/** duration (ms) of a tick of the RA's timer */
+	private static final long TIMER_TICK = 100L;
+	/** number of buckets of the RA's timer: a round takes almost a minute */
+	private static final int TIMER_SIZE = 512;
 
 //    private static final int DEFAULT_MSRP_PORT = 2855;
 
     private String address;
+    /** the addresses resolved at configuration time, empty if that failed */
+    private volatile MsrpListeningPoint[] listeningPoints = new MsrpListeningPoint[0];
+    /** spreads new sessions over the listening points */
+    private volatile ListeningPointSelector listeningPointSelector;
+    /** whether sessions towards the same peer are bound to the same listening point */
+    private volatile boolean peerAffinity = DEFAULT_PEER_AFFINITY;
+    private final PeerAffinity peers = new PeerAffinity();
+
+	private int dispatcherThreads;
+	private int dispatcherQueueSize;
+
+	/** how sessions are closed on deactivation */
+	private volatile int shutdownThreads;
+	private volatile long shutdownTimeout;
+
+	/** liveness checks of the sessions, 0 is off */
+	private volatile long keepaliveInterval;
+	private volatile long idleTimeout;
+	private volatile LivenessMonitor liveness;
+
+	/** runs the liveness checks and report timeouts */
+	private volatile TimingWheel timer;
+
+	/** what becomes of incoming REPORTs */
+	private volatile ReportCorrelator.Mode reportMode = ReportCorrelator.Mode.ALL;
+	private volatile long reportTimeout;
+	private volatile ReportCorrelator reports;
+
+	/** sends to many sessions at once */
+	private volatile int broadcastThreads;
+	private volatile Broadcaster broadcaster;
 
-	private transient ConcurrentHashMap<MsrpActivityHandle, MsrpSession> activities;
+	/** sets up the connections of active sessions in the background */
+	private volatile int connectThreads;
+	private volatile ThreadPoolExecutor connector;
+	/** max. time (ms) to wait for the local sdp of a session still connecting */
+	private volatile long sdpTimeout = DEFAULT_SDP_TIMEOUT;
+
+	/** where to spill large incoming messages, null for the default */
+	private String spillDirectory;
+	private boolean memoryPooling;
+
+	/** storage for incoming messages */
+	private volatile DataContainerFactory dataContainerFactory;
+
+	/** which send progress updates to fire */
+	private volatile ProgressPolicy progressPolicy = ProgressPolicy.ALL;
+
+	/** recycles events once unreferenced, null when off */
+	private volatile EventPool eventPool;
+	private int eventPoolSize;
+
+	/** size from which outgoing messages of a session are sent one at a time, 0 is off */
+	private volatile long largeMessageSize;
+	private volatile long largeMessageTimeout = DEFAULT_LARGE_TIMEOUT;
+
+	/** max. number of events per session in processing before refusing messages, 0 is unlimited */
+	private volatile int eventCredits;
+
+	/** hands events to the SLEE, off the MSRP stack's threads. Null when synchronous */
+	private volatile EventDispatcher dispatcher;
+
+	private transient volatile ConcurrentHashMap<MsrpActivityHandle, MsrpSession> activities;
 
 	public MsrpResourceAdaptor() { }
 
@@ -95,8 +250,135 @@ public class MsrpResourceAdaptor implements ResourceAdaptor {
 		return trc;
 	}
 
-	public InetAddress getAddress() throws UnknownHostException {
-			return InetAddress.getByName(address);
+	MsrpRaMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return number of sessions currently active
+	 */
+	int getActiveSessionCount() {
+		Map<MsrpActivityHandle, MsrpSession> current = activities;
+		return current == null ? 0 : current.size();
+	}
+
+	/**
+	 * @return number of events not fired because no active service receives them, per event type
+	 */
+	public Map<EventTypeID, Long> getFilteredEventCounts() {
+		return eventIDFilter.getFilteredCounts();
+	}
+
+	DataContainerFactory getDataContainerFactory() {
+		return dataContainerFactory;
+	}
+
+	ProgressPolicy getProgressPolicy() {
+		return progressPolicy;
+	}
+
+	ReportCorrelator getReports() {
+		return reports;
+	}
+
+	long getLargeMessageSize() {
+		return largeMessageSize;
+	}
+
+	long getLargeMessageTimeout() {
+		return largeMessageTimeout;
+	}
+
+	TimingWheel getTimer() {
+		return timer;
+	}
+
+	int getEventCredits() {
+		return eventCredits;
+	}
+
+	long getSdpTimeout() {
+		return sdpTimeout;
+	}
+
+	Broadcaster getBroadcaster() {
+		return broadcaster;
+	}
+
+	/**
+	 * @return the local address to bind the next session to, as resolved at configuration time.
+	 * @throws UnknownHostException none of the configured addresses could be resolved
+	 */
+	MsrpListeningPoint selectListeningPoint() throws UnknownHostException {
+		MsrpListeningPoint[] points = listeningPoints;
+		if (points.length == 0)
+			throw new UnknownHostException(address);
+		return points.length == 1 ? points[0] : listeningPointSelector.select(points);
+	}
+
+	/**
+	 * @param to	the first hop towards the peer of a new session
+	 * @return the peer the session is to be accounted to, null if none
+	 */
+	String peerOf(URI to) {
+		return peerAffinity ? PeerAffinity.peerOf(to) : null;
+	}
+
+	/**
+	 * Pick the local address of a new session towards the given peer, and
+	 * account the session to the peer: hand it to {@link #createActivity},
+	 * or to {@link #leavePeer(String)} when the session is not created after all.
+	 * @param peer	as returned by {@link #peerOf(URI)}, null to just select one
+	 * @return the local address of the other sessions towards the peer, if any,
+	 * 			so they may share a connection.
+	 * @throws UnknownHostException none of the configured addresses could be resolved
+	 */
+	MsrpListeningPoint selectListeningPoint(String peer) throws UnknownHostException {
+		if (peer == null)
+			return selectListeningPoint();
+		MsrpListeningPoint[] points = listeningPoints;
+		if (points.length == 0)
+			throw new UnknownHostException(address);
+		return peers.join(peer, points, listeningPointSelector);
+	}
+
+	/**
+	 * A session accounted to a peer by {@link #selectListeningPoint(String)} was not created.
+	 * @param peer the peer, null if none
+	 */
+	void leavePeer(String peer) {
+		if (peer != null)
+			peers.leave(peer);
+	}
+
+	/**
+	 * Account a session to its peer, once its path is known, if it is bound
+	 * to the local address of the peer's other sessions.
+	 * @param session	the session
+	 * @param to		the first hop towards its peer
+	 */
+	void joinPeer(BasicMsrpSession session, URI to) {
+		String peer = peerOf(to);
+		MsrpListeningPoint point = session.getListeningPoint();
+		if (peer != null && point != null && peers.join(peer, point) && !session.setPeer(peer))
+			peers.leave(peer);
+	}
+
+	/**
+	 * @return number of active sessions per peer
+	 */
+	public Map<String, Integer> getPeerSessions() {
+		return peers.getSessions();
+	}
+
+	/**
+	 * @return number of active sessions per configured local address
+	 */
+	public Map<String, Integer> getListeningPointSessions() {
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		for (MsrpListeningPoint point : listeningPoints)
+			counts.put(point.toString(), point.getSessions());
+		return counts;
 	}
 
 	// lifecycle methods ---------------
@@ -104,37 +386,180 @@ public class MsrpResourceAdaptor implements ResourceAdaptor {
 		raContext = ctxt;
 		trc = ctxt.getTracer(MsrpResourceAdaptor.class.getSimpleName());
 
-		eventIdCache = new EventIDCache(ctxt.getTracer(EventIDCache.class.getSimpleName()));
 		eventIDFilter = new EventIDFilter();
 		sleeEndpoint = ctxt.getSleeEndpoint();
 		eventLookup = ctxt.getEventLookupFacility();
+		eventIdCache = new EventIDCache(ctxt.getTracer(EventIDCache.class.getSimpleName()),
+				eventLookup, eventIDFilter);
 		sbbIf = new BasicMsrpResourceAdaptorSbbInterface(this);
+		metrics = new MsrpRaMetrics(this, eventIDFilter);
+		registerMetrics(ctxt.getEntityName());
 	}
 
 	public void raConfigure(ConfigProperties properties) {
-		address = DEFAULT_MSRP_IPADDRESS;
-		if (properties.getProperty(IPADDRESS_CONFIG_PROPERTY) != null)
-			address = (String) properties.getProperty(IPADDRESS_CONFIG_PROPERTY).getValue();
+		address = getAddressProperty(properties);
+		listeningPoints = resolve(address);
+		spillDirectory = getStringProperty(properties, SPILL_DIRECTORY_CONFIG_PROPERTY);
+		memoryPooling = getBooleanProperty(properties, MEMORY_POOLING_CONFIG_PROPERTY, DEFAULT_MEMORY_POOLING);
+		dataContainerFactory = null;
+		applyTuning(properties);
+	}
+
+	/**
+	 * Apply the properties that may change while the entity is active.
+	 * <BR>
+	 * All values are read before any is applied, so a bad value leaves the
+	 * running configuration as it was. Sessions and pending events are kept.
+	 * @param properties the (verified) configuration
+	 */
+	private synchronized void applyTuning(ConfigProperties properties) {
+		int threads = getIntProperty(properties,
+				DISPATCHER_THREADS_CONFIG_PROPERTY, DEFAULT_DISPATCHER_THREADS);
+		int queueSize = getIntProperty(properties,
+				DISPATCHER_QUEUE_CONFIG_PROPERTY, DEFAULT_DISPATCHER_QUEUE);
+		long keepalive = getLongProperty(properties,
+				KEEPALIVE_INTERVAL_CONFIG_PROPERTY, DEFAULT_KEEPALIVE_INTERVAL);
+		long idle = getLongProperty(properties,
+				IDLE_TIMEOUT_CONFIG_PROPERTY, DEFAULT_IDLE_TIMEOUT);
+		int teardownThreads = getIntProperty(properties,
+				SHUTDOWN_THREADS_CONFIG_PROPERTY, DEFAULT_SHUTDOWN_THREADS);
+		long teardownTimeout = getLongProperty(properties,
+				SHUTDOWN_TIMEOUT_CONFIG_PROPERTY, DEFAULT_SHUTDOWN_TIMEOUT);
+		int senders = getIntProperty(properties,
+				BROADCAST_THREADS_CONFIG_PROPERTY, DEFAULT_BROADCAST_THREADS);
+		int connectors = getIntProperty(properties,
+				CONNECT_THREADS_CONFIG_PROPERTY, DEFAULT_CONNECT_THREADS);
+		long localSdpTimeout = getLongProperty(properties, SDP_TIMEOUT_CONFIG_PROPERTY, DEFAULT_SDP_TIMEOUT);
+		int poolSize = getIntProperty(properties, EVENT_POOL_CONFIG_PROPERTY, DEFAULT_EVENT_POOL);
+		int credits = getIntProperty(properties, EVENT_CREDITS_CONFIG_PROPERTY, DEFAULT_EVENT_CREDITS);
+		ReportCorrelator.Mode correlation = getReportMode(getStringProperty(properties, REPORT_MODE_CONFIG_PROPERTY));
+		long correlationTimeout = getLongProperty(properties, REPORT_TIMEOUT_CONFIG_PROPERTY, DEFAULT_REPORT_TIMEOUT);
+		long largeSize = getLongProperty(properties, LARGE_MESSAGE_CONFIG_PROPERTY, DEFAULT_LARGE_MESSAGE);
+		long largeTimeout = getLongProperty(properties, LARGE_TIMEOUT_CONFIG_PROPERTY, DEFAULT_LARGE_TIMEOUT);
+		ProgressPolicy policy = new ProgressPolicy(
+				getLongProperty(properties, PROGRESS_BYTES_CONFIG_PROPERTY, DEFAULT_PROGRESS_BYTES),
+				getLongProperty(properties, PROGRESS_INTERVAL_CONFIG_PROPERTY, DEFAULT_PROGRESS_INTERVAL),
+				getBooleanProperty(properties, PROGRESS_COMPLETION_CONFIG_PROPERTY, DEFAULT_PROGRESS_COMPLETION));
+		long maxSize = getLongProperty(properties, MAX_SIZE_CONFIG_PROPERTY, DEFAULT_MAX_SIZE);
+		int memoryThreshold = getIntProperty(properties, MEMORY_THRESHOLD_CONFIG_PROPERTY, DEFAULT_MEMORY_THRESHOLD);
+		long memoryBudget = getLongProperty(properties, MEMORY_BUDGET_CONFIG_PROPERTY, DEFAULT_MEMORY_BUDGET);
+		ListeningPointSelector selector;
+		try {
+			selector = getSelector(getStringProperty(properties, STRATEGY_CONFIG_PROPERTY));
+		} catch (Exception e) {
+			trc.severe("Unusable " + STRATEGY_CONFIG_PROPERTY + ", using " + DEFAULT_STRATEGY, e);
+			selector = new ListeningPointSelector.RoundRobin();
+		}
+
+		dispatcherThreads = threads;
+		dispatcherQueueSize = queueSize;
+		shutdownThreads = teardownThreads;
+		shutdownTimeout = teardownTimeout;
+		keepaliveInterval = keepalive;
+		idleTimeout = idle;
+		LivenessMonitor monitor = liveness;
+		if (monitor != null)
+			monitor.setIntervals(keepalive, idle);
+		broadcastThreads = senders;
+		Broadcaster b = broadcaster;
+		if (b != null)
+			b.reconfigure(senders);
+		connectThreads = connectors;
+		sdpTimeout = localSdpTimeout;
+		ThreadPoolExecutor c = connector;
+		if (c != null) {
+			// keep core <= max at all times.
+			if (connectors > c.getMaximumPoolSize()) {
+				c.setMaximumPoolSize(connectors);
+				c.setCorePoolSize(connectors);
+			} else {
+				c.setCorePoolSize(connectors);
+				c.setMaximumPoolSize(connectors);
+			}
+		}
+		EventDispatcher d = dispatcher;
+		if (d != null && threads > 0)
+			d.reconfigure(threads, queueSize);
+		progressPolicy = policy;
+		eventCredits = credits;
+		largeMessageSize = largeSize;
+		largeMessageTimeout = largeTimeout;
+		reportMode = correlation;
+		reportTimeout = correlationTimeout;
+		ReportCorrelator correlator = reports;
+		if (correlator != null)
+			correlator.setMode(correlation, correlationTimeout);
+		if (poolSize != eventPoolSize) {
+			// events of the previous pool are simply taken back by the new one.
+			eventPool = poolSize == 0 ? null : new EventPool(poolSize);
+			eventPoolSize = poolSize;
+		}
+		DataContainerFactory factory = dataContainerFactory;
+		if (factory == null)
+			dataContainerFactory = new DataContainerFactory(maxSize, memoryThreshold, memoryBudget,
+					spillDirectory == null ? null : new File(spillDirectory), memoryPooling);
+		else
+			factory.update(maxSize, memoryThreshold, memoryBudget);
+		listeningPointSelector = selector;
+		peerAffinity = getBooleanProperty(properties, PEER_AFFINITY_CONFIG_PROPERTY, DEFAULT_PEER_AFFINITY);
 	}
 
 	public void raActive() {
     	this.activities = new ConcurrentHashMap<MsrpActivityHandle, MsrpSession>();
+    	eventIdCache.prewarm();
+    	if (listeningPoints.length == 0)
+    		listeningPoints = resolve(address);
+    	if (dispatcherThreads > 0)
+    		dispatcher = new EventDispatcher(raContext.getTracer(EventDispatcher.class.getSimpleName()),
+    				raContext.getEntityName(), dispatcherThreads, dispatcherQueueSize);
+    	timer = new TimingWheel(trc, raContext.getEntityName(), TIMER_TICK, TIMER_SIZE);
+    	LivenessMonitor monitor = new LivenessMonitor(this, timer);
+    	monitor.setIntervals(keepaliveInterval, idleTimeout);
+    	liveness = monitor;
+    	ReportCorrelator correlator = new ReportCorrelator(this, timer);
+    	correlator.setMode(reportMode, reportTimeout);
+    	reports = correlator;
+    	broadcaster = new Broadcaster(this, raContext.getEntityName(), broadcastThreads);
+    	connector = new ThreadPoolExecutor(connectThreads, connectThreads, 0L, TimeUnit.MILLISECONDS,
+    			new LinkedBlockingQueue<Runnable>(), new RaThreadFactory(raContext.getEntityName(), "connector"));
     	sbbIf.setActive(true);
 
     	if (trc.isFineEnabled())
-        	trc.fine(String.format("MSRP RA starting as host %s.", address));
+        	trc.fine(String.format("MSRP RA starting as host %s, %d dispatcher thread(s).",
+        			address, dispatcherThreads));
 	}
 
 	public void raStopping() {
-		/* empty */
+		sbbIf.setActive(false);
+		closeSessions();
 	}
 
 	public void raInactive() {
 		sbbIf.setActive(false);
-		for (ActivityHandle handle : activities.keySet()) {
-			endActivity(handle);
+		if (broadcaster != null) {
+			broadcaster.shutdown(BROADCAST_SHUTDOWN_TIMEOUT);
+			broadcaster = null;
+		}
+		if (connector != null) {
+			// sessions still connecting are closed below.
+			connector.shutdownNow();
+			connector = null;
+		}
+		if (dispatcher != null) {
+			// let pending events through first.
+			dispatcher.shutdown(DISPATCHER_SHUTDOWN_TIMEOUT);
+			dispatcher = null;
+		}
+		// whatever survived stopping.
+		closeSessions();
+		liveness = null;
+		reports = null;
+		if (timer != null) {
+			timer.stop();
+			timer = null;
 		}
 		activities = null;
+		peers.clear();
 	}
 
 	public void raUnconfigure() {
@@ -142,6 +567,7 @@ public class MsrpResourceAdaptor implements ResourceAdaptor {
 	}
 
 	public void unsetResourceAdaptorContext() {
+		unregisterMetrics();
 		raContext = null;
 		trc = null;
 		eventIdCache = null;
@@ -153,15 +579,113 @@ public class MsrpResourceAdaptor implements ResourceAdaptor {
 	// config management methods -------
 	public void raVerifyConfiguration(ConfigProperties properties)
 			throws InvalidConfigurationException {
+		for (String host : getAddressProperty(properties).split(",")) {
+			try {
+				InetAddress.getByName(host.trim());
+			} catch (UnknownHostException uhe) {
+				throw new InvalidConfigurationException("Unknown host: " + host.trim());
+			}
+		}
+		try {
+			getSelector(getStringProperty(properties, STRATEGY_CONFIG_PROPERTY));
+		} catch (Exception e) {
+			throw new InvalidConfigurationException("Invalid " + STRATEGY_CONFIG_PROPERTY + ": " + e);
+		}
+		try {
+			getReportMode(getStringProperty(properties, REPORT_MODE_CONFIG_PROPERTY));
+		} catch (IllegalArgumentException e) {
+			throw new InvalidConfigurationException("Invalid " + REPORT_MODE_CONFIG_PROPERTY
+					+ ", expected all, message or failures: " + getStringProperty(properties, REPORT_MODE_CONFIG_PROPERTY));
+		}
 		try {
-			InetAddress.getByName(address);
-		} catch (UnknownHostException uhe) {
-			throw new InvalidConfigurationException("Unknown host: " + address);
+			if (getIntProperty(properties, DISPATCHER_THREADS_CONFIG_PROPERTY, DEFAULT_DISPATCHER_THREADS) < 0)
+				throw new InvalidConfigurationException(DISPATCHER_THREADS_CONFIG_PROPERTY + " must not be negative");
+			if (getIntProperty(properties, DISPATCHER_QUEUE_CONFIG_PROPERTY, DEFAULT_DISPATCHER_QUEUE) <= 0)
+				throw new InvalidConfigurationException(DISPATCHER_QUEUE_CONFIG_PROPERTY + " must be positive");
+			if (getLongProperty(properties, PROGRESS_BYTES_CONFIG_PROPERTY, DEFAULT_PROGRESS_BYTES) < 0)
+				throw new InvalidConfigurationException(PROGRESS_BYTES_CONFIG_PROPERTY + " must not be negative");
+			if (getLongProperty(properties, PROGRESS_INTERVAL_CONFIG_PROPERTY, DEFAULT_PROGRESS_INTERVAL) < 0)
+				throw new InvalidConfigurationException(PROGRESS_INTERVAL_CONFIG_PROPERTY + " must not be negative");
+			if (getLongProperty(properties, MAX_SIZE_CONFIG_PROPERTY, DEFAULT_MAX_SIZE) < 0)
+				throw new InvalidConfigurationException(MAX_SIZE_CONFIG_PROPERTY + " must not be negative");
+			if (getIntProperty(properties, MEMORY_THRESHOLD_CONFIG_PROPERTY, DEFAULT_MEMORY_THRESHOLD) < 0)
+				throw new InvalidConfigurationException(MEMORY_THRESHOLD_CONFIG_PROPERTY + " must not be negative");
+			if (getLongProperty(properties, MEMORY_BUDGET_CONFIG_PROPERTY, DEFAULT_MEMORY_BUDGET) < 0)
+				throw new InvalidConfigurationException(MEMORY_BUDGET_CONFIG_PROPERTY + " must not be negative");
+			if (getLongProperty(properties, KEEPALIVE_INTERVAL_CONFIG_PROPERTY, DEFAULT_KEEPALIVE_INTERVAL) < 0)
+				throw new InvalidConfigurationException(KEEPALIVE_INTERVAL_CONFIG_PROPERTY + " must not be negative");
+			if (getLongProperty(properties, IDLE_TIMEOUT_CONFIG_PROPERTY, DEFAULT_IDLE_TIMEOUT) < 0)
+				throw new InvalidConfigurationException(IDLE_TIMEOUT_CONFIG_PROPERTY + " must not be negative");
+			if (getIntProperty(properties, SHUTDOWN_THREADS_CONFIG_PROPERTY, DEFAULT_SHUTDOWN_THREADS) <= 0)
+				throw new InvalidConfigurationException(SHUTDOWN_THREADS_CONFIG_PROPERTY + " must be positive");
+			if (getLongProperty(properties, SHUTDOWN_TIMEOUT_CONFIG_PROPERTY, DEFAULT_SHUTDOWN_TIMEOUT) < 0)
+				throw new InvalidConfigurationException(SHUTDOWN_TIMEOUT_CONFIG_PROPERTY + " must not be negative");
+			if (getIntProperty(properties, BROADCAST_THREADS_CONFIG_PROPERTY, DEFAULT_BROADCAST_THREADS) <= 0)
+				throw new InvalidConfigurationException(BROADCAST_THREADS_CONFIG_PROPERTY + " must be positive");
+			if (getIntProperty(properties, CONNECT_THREADS_CONFIG_PROPERTY, DEFAULT_CONNECT_THREADS) <= 0)
+				throw new InvalidConfigurationException(CONNECT_THREADS_CONFIG_PROPERTY + " must be positive");
+			if (getLongProperty(properties, SDP_TIMEOUT_CONFIG_PROPERTY, DEFAULT_SDP_TIMEOUT) < 0)
+				throw new InvalidConfigurationException(SDP_TIMEOUT_CONFIG_PROPERTY + " must not be negative");
+			if (getIntProperty(properties, EVENT_POOL_CONFIG_PROPERTY, DEFAULT_EVENT_POOL) < 0)
+				throw new InvalidConfigurationException(EVENT_POOL_CONFIG_PROPERTY + " must not be negative");
+			if (getIntProperty(properties, EVENT_CREDITS_CONFIG_PROPERTY, DEFAULT_EVENT_CREDITS) < 0)
+				throw new InvalidConfigurationException(EVENT_CREDITS_CONFIG_PROPERTY + " must not be negative");
+			if (getLongProperty(properties, REPORT_TIMEOUT_CONFIG_PROPERTY, DEFAULT_REPORT_TIMEOUT) <= 0)
+				throw new InvalidConfigurationException(REPORT_TIMEOUT_CONFIG_PROPERTY + " must be positive");
+			if (getLongProperty(properties, LARGE_MESSAGE_CONFIG_PROPERTY, DEFAULT_LARGE_MESSAGE) < 0)
+				throw new InvalidConfigurationException(LARGE_MESSAGE_CONFIG_PROPERTY + " must not be negative");
+			if (getLongProperty(properties, LARGE_TIMEOUT_CONFIG_PROPERTY, DEFAULT_LARGE_TIMEOUT) < 0)
+				throw new InvalidConfigurationException(LARGE_TIMEOUT_CONFIG_PROPERTY + " must not be negative");
+		} catch (NumberFormatException e) {
+			throw new InvalidConfigurationException("Invalid number: " + e.getMessage());
 		}
+		String newSpillDirectory = getStringProperty(properties, SPILL_DIRECTORY_CONFIG_PROPERTY);
+		if (newSpillDirectory != null) {
+			File directory = new File(newSpillDirectory);
+			if (!directory.isDirectory() || !directory.canWrite())
+				throw new InvalidConfigurationException("Not a writable directory: " + newSpillDirectory);
+		}
+		if (activities != null)
+			verifyActiveUpdate(properties);
+	}
+
+	/**
+	 * Check that an update of an active entity only touches what {@link #applyTuning} applies.
+	 * @param properties the new configuration
+	 * @throws InvalidConfigurationException a property changed that needs the entity deactivated
+	 */
+	private void verifyActiveUpdate(ConfigProperties properties) throws InvalidConfigurationException {
+		if (!getAddressProperty(properties).equals(address))
+			throw new InvalidConfigurationException(IPADDRESS_CONFIG_PROPERTY + " cannot change while active");
+		String newSpillDirectory = getStringProperty(properties, SPILL_DIRECTORY_CONFIG_PROPERTY);
+		if (newSpillDirectory == null ? spillDirectory != null : !newSpillDirectory.equals(spillDirectory))
+			throw new InvalidConfigurationException(SPILL_DIRECTORY_CONFIG_PROPERTY + " cannot change while active");
+		if (getBooleanProperty(properties, MEMORY_POOLING_CONFIG_PROPERTY, DEFAULT_MEMORY_POOLING) != memoryPooling)
+			throw new InvalidConfigurationException(MEMORY_POOLING_CONFIG_PROPERTY + " cannot change while active");
+		int threads = getIntProperty(properties, DISPATCHER_THREADS_CONFIG_PROPERTY, DEFAULT_DISPATCHER_THREADS);
+		if ((threads == 0) != (dispatcher == null))
+			throw new InvalidConfigurationException(DISPATCHER_THREADS_CONFIG_PROPERTY
+					+ " cannot switch between 0 and more while active");
 	}
 
+	/**
+	 * Apply a new configuration.
+	 * <BR>
+	 * An active entity takes the tuning properties without ending any session:
+	 * dispatcher threads and queue size, progress throttling, message and
+	 * memory sizes and the listener strategy. Other properties were rejected
+	 * by {@link #raVerifyConfiguration}.
+	 */
 	public void raConfigurationUpdate(ConfigProperties properties) {
-		throw new UnsupportedOperationException();
+		if (activities == null) {
+			// not active: nothing to preserve.
+			raConfigure(properties);
+			return;
+		}
+		applyTuning(properties);
+		if (trc.isInfoEnabled())
+			trc.info("MSRP RA reconfigured: " + dispatcherThreads + " dispatcher thread(s), max. message size "
+					+ dataContainerFactory.getMaxSize());
 	}
 
 	// event filtering methods ---------
@@ -206,27 +730,40 @@ public class MsrpResourceAdaptor implements ResourceAdaptor {
 		/* empty */
 	}
 
-	public void eventProcessingFailed(ActivityHandle arg0,
+	public void eventProcessingFailed(ActivityHandle handle,
 			FireableEventType arg1, Object arg2, Address arg3,
 			ReceivableService arg4, int arg5, FailureReason arg6) {
-		/* empty */
+		eventProcessed(handle);
 	}
 
-	public void eventProcessingSuccessful(ActivityHandle arg0,
+	public void eventProcessingSuccessful(ActivityHandle handle,
 			FireableEventType arg1, Object arg2, Address arg3,
 			ReceivableService arg4, int arg5) {
-		/* empty */
+		eventProcessed(handle);
 	}
 
 	public void eventUnreferenced(ActivityHandle arg0, FireableEventType arg1,
 			Object event, Address arg3, ReceivableService arg4, int arg5) {
-		/* empty */
+		release(event);
 	}
 
 	public void queryLiveness(ActivityHandle activityHandle) {
-		MsrpSession session = activities.get(activityHandle);
-		if ((session == null) || !((Session) session.getSession()).isActive())
-			endActivity(activityHandle);
+		Map<MsrpActivityHandle, MsrpSession> current = activities;
+		if (current == null)
+			return;			// inactive: all activities are ended anyway.
+		MsrpSession session = current.get(activityHandle);
+		if (session == null) {
+			// unknown to the RA, but still known to the SLEE.
+			if (activityHandle instanceof MsrpActivityHandle)
+				endActivityAfterEvents((MsrpActivityHandle) activityHandle);
+			else
+				endActivity(activityHandle);
+		} else {
+			Session msrp = (Session) session.getSession();
+			// without an MSRP session it is still connecting.
+			if (msrp != null && !msrp.isActive())
+				endActivity(session.getSessionId());
+		}
 	}
 
 	// interface accessors -------------
@@ -239,15 +776,43 @@ public class MsrpResourceAdaptor implements ResourceAdaptor {
 	}
 
 	// ra logic ------------------------
-	MsrpSession createActivity(String sessionId, Session session, MsrpActivityHandle handle) throws
+	BasicMsrpSession createActivity(String sessionId, Session session, MsrpActivityHandle handle,
+					MsrpListeningPoint listeningPoint) throws
+					ActivityAlreadyExistsException, NullPointerException,
+					IllegalStateException, SLEEException, StartActivityException {
+		return createActivity(sessionId, session, handle, listeningPoint, null);
+	}
+
+	/**
+	 * @param peer	the peer the session was accounted to by {@link #selectListeningPoint(String)},
+	 * 				null if none; left again when the activity ends
+	 */
+	BasicMsrpSession createActivity(String sessionId, Session session, MsrpActivityHandle handle,
+					MsrpListeningPoint listeningPoint, String peer) throws
 					ActivityAlreadyExistsException, NullPointerException,
 					IllegalStateException, SLEEException, StartActivityException {
 
-		MsrpSession activity = new BasicMsrpSession(sessionId, session, this);
+		BasicMsrpSession activity = new BasicMsrpSession(sessionId, session, this);
 		// lookup the activity and check if already exists
-		if (activities.get(handle) == null) {
-			activities.put(handle, activity);
-			sleeEndpoint.startActivity(handle, activity);
+		if (activities.putIfAbsent(handle, activity) == null) {
+			activity.setListeningPoint(listeningPoint);
+			boolean started = false;
+			try {
+				sleeEndpoint.startActivity(handle, activity);
+				started = true;
+			} finally {
+				// not started: undo, the caller leaves the peer.
+				if (!started) {
+					activities.remove(handle, activity);
+					activity.setListeningPoint(null);
+				}
+			}
+			if (peer != null)
+				activity.setPeer(peer);
+			metrics.sessionCreated();
+			LivenessMonitor monitor = liveness;
+			if (monitor != null)
+				monitor.watch(activity);
 			if (trc.isFineEnabled())
 				trc.fine("Started Msrp session activity: " + activity.getSessionId());
 		} else {
@@ -258,24 +823,295 @@ public class MsrpResourceAdaptor implements ResourceAdaptor {
 	}
 
 	void endActivity(String sessionId) {
+		if (activities == null)
+			return;			// already inactive.
 		MsrpActivityHandle handle = new MsrpActivityHandle(sessionId);
-		if (activities.get(handle) != null) {
-			activities.remove(handle);
+		if (removeActivity(handle) != null)
+			endActivityAfterEvents(handle);
+	}
+
+	/**
+	 * End an activity behind the events still pending for it, releasing its event queue.
+	 * @param handle the activity
+	 */
+	private void endActivityAfterEvents(final MsrpActivityHandle handle) {
+		EventDispatcher d = dispatcher;
+		if (d == null) {
 			endActivity(handle);
+		} else {
+			d.dispatchLast(handle, new Runnable() {
+				public void run() {
+					endActivity(handle);
+				}
+			});
 		}
 	}
 
-	public void fireEvent(Object event, MsrpActivityHandle handle) {
+	/**
+	 * Fire an event on the given activity.
+	 * <BR>
+	 * Events no active service is interested in are dropped right away.
+	 * When dispatcher threads are configured the event is queued for the
+	 * session and fired asynchronously, in order of arrival.
+	 * @param event		the event to fire
+	 * @param handle	the activity to fire it on
+	 */
+	public void fireEvent(final Object event, final MsrpActivityHandle handle) {
     	if (trc.isFineEnabled())
     		trc.fine("New Msrp-RA event: " + event.getClass().getName());
 
-        final FireableEventType eventType = eventIdCache.getEventType(eventLookup, event);
+        final EventIDCache.EventType type = eventIdCache.getEventType(event);
+        if (type == null) {
+        	release(event);
+        	return;
+        }
+        if (eventIDFilter.filterEvent(type.getSlot())) {
+        	if (trc.isFinestEnabled())
+        		trc.finest("No service receives event, dropped: " + type.getSlot().getEventTypeID());
+        	release(event);
+        	return;
+        }
+        final BasicMsrpSession charged = event instanceof IncomingMessage ? charge(handle) : null;
+        EventDispatcher d = dispatcher;
+        if (d == null) {
+        	fireEvent(event, type, handle, charged);
+        } else {
+        	boolean queued = d.dispatch(handle, new Runnable() {
+        		public void run() {
+        			fireEvent(event, type, handle, charged);
+        		}
+        	});
+        	if (!queued) {
+        		metrics.eventDropped();
+        		if (charged != null)
+        			charged.eventProcessed();
+        		release(event);
+        	}
+        }
+    }
+
+	private void fireEvent(Object event, EventIDCache.EventType type, MsrpActivityHandle handle,
+			BasicMsrpSession charged) {
+		// pooled storage, and pooled events, are released once the SLEE is done with them.
+		int flags = getStorage(event) != null || (eventPool != null && EventPool.isRecyclable(event)) ?
+				EventFlags.REQUEST_EVENT_UNREFERENCED_CALLBACK : EventFlags.NO_FLAGS;
+		// credits are returned once the SLEE has processed the event.
+		if (charged != null)
+			flags |= EventFlags.REQUEST_PROCESSING_SUCCESSFUL_CALLBACK | EventFlags.REQUEST_PROCESSING_FAILED_CALLBACK;
         try {
-        	sleeEndpoint.fireEvent(handle, eventType, event, null, null);
+        	long start = System.nanoTime();
+        	sleeEndpoint.fireEvent(handle, type.getFireableEventType(), event, null, null, flags);
+        	metrics.eventFired(type.getSlot(), System.nanoTime() - start);
         } catch (Throwable e) {
             trc.severe("Failed to fire event.", e);
+            if (charged != null)
+            	charged.eventProcessed();
+            release(event);
         }
-    }
+	}
+
+	/**
+	 * Account an incoming message about to be fired to its session, when
+	 * credits apply. Only these are charged: credits refuse new incoming
+	 * messages, while events on what the session sends are left alone.
+	 * @param handle	the activity the event is fired on
+	 * @return the session charged, null if none
+	 */
+	private BasicMsrpSession charge(MsrpActivityHandle handle) {
+		if (eventCredits <= 0)
+			return null;
+		Map<MsrpActivityHandle, MsrpSession> current = activities;
+		MsrpSession session = current == null ? null : current.get(handle);
+		if (!(session instanceof BasicMsrpSession))
+			return null;
+		((BasicMsrpSession) session).eventFired();
+		return (BasicMsrpSession) session;
+	}
+
+	/**
+	 * The SLEE finished processing an event charged to the session of given activity.
+	 * @param handle	the activity
+	 */
+	private void eventProcessed(ActivityHandle handle) {
+		Map<MsrpActivityHandle, MsrpSession> current = activities;
+		MsrpSession session = current == null ? null : current.get(handle);
+		if (session instanceof BasicMsrpSession)
+			((BasicMsrpSession) session).eventProcessed();
+	}
+
+	/**
+	 * @param event an event
+	 * @return the pooled storage of the message carried by the event, if any.
+	 */
+	private static ByteBufferDataContainer getStorage(Object event) {
+		Message message = null;
+		if (event instanceof Message)
+			message = (Message) event;
+		else if (event instanceof MessageAbortedEvent)
+			message = ((MessageAbortedEvent) event).getMessage();
+		if (message != null) {
+			DataContainer container = message.getDataContainer();
+			if (container instanceof ByteBufferDataContainer && ((ByteBufferDataContainer) container).isPooled())
+				return (ByteBufferDataContainer) container;
+		}
+		return null;
+	}
+
+	/**
+	 * The SLEE is done with the given event: release its storage, recycle it if pooling.
+	 * @param event an event
+	 */
+	private void release(Object event) {
+		ByteBufferDataContainer storage = getStorage(event);
+		if (storage != null)
+			storage.release();
+		EventPool pool = eventPool;
+		if (pool != null)
+			pool.recycle(event);
+	}
+
+	UpdateSendEvent newUpdateSendEvent(Session session, Message message, long bytesSent) {
+		EventPool pool = eventPool;
+		return pool == null ? new UpdateSendEvent(session, message, bytesSent) :
+				pool.updateSendEvent(session, message, bytesSent);
+	}
+
+	ReportEvent newReportEvent(Session session, String messageId, int namespace, int statusCode, String comment) {
+		EventPool pool = eventPool;
+		return pool == null ? new ReportEvent(session, messageId, namespace, statusCode, comment) :
+				pool.reportEvent(session, messageId, namespace, statusCode, comment);
+	}
+
+	/**
+	 * Forget about the session of the given activity, freeing its slot on the listening point.
+	 * @param handle	the activity
+	 * @return the session, null if unknown
+	 */
+	private MsrpSession removeActivity(ActivityHandle handle) {
+		Map<MsrpActivityHandle, MsrpSession> current = activities;
+		MsrpSession session = current == null ? null : current.remove(handle);
+		if (session instanceof BasicMsrpSession) {
+			String peer = ((BasicMsrpSession) session).leavePeer();
+			if (peer != null)
+				peers.leave(peer);
+			((BasicMsrpSession) session).setListeningPoint(null);
+			((BasicMsrpSession) session).stopLivenessCheck();
+			((BasicMsrpSession) session).releaseStaged();
+		}
+		if (session != null)
+			metrics.sessionEnded();
+		return session;
+	}
+
+	/**
+	 * Give up on a session that received nothing for too long: report the
+	 * connection lost, unless that was done already, and close the session.
+	 * @param session	the session
+	 * @param idle		time (ms) since it last received anything
+	 */
+	void sessionIdle(BasicMsrpSession session, long idle) {
+		if (!session.markLost())
+			return;
+		if (trc.isInfoEnabled())
+			trc.info("No MSRP traffic for " + idle + " ms, closing session " + session.getSessionId());
+		metrics.sessionIdle();
+		metrics.connectionLost();
+		Session msrp = (Session) session.getSession();
+		fireEvent(new ConnectionLostEvent(msrp, new SocketTimeoutException("No MSRP traffic for " + idle + " ms")),
+				new MsrpActivityHandle(session.getSessionId()));
+		endActivity(session.getSessionId());
+		if (msrp != null)
+			msrp.tearDown();
+	}
+
+	/**
+	 * Create the secure MSRP session of an activity on a connector thread:
+	 * the stack connects a session to its peer, TLS handshake included, as
+	 * it creates it, so this does not hold up the caller. Messages sent in
+	 * the meantime are held back; a failure is reported as a lost connection.
+	 * @param session	the activity, just created without an MSRP session
+	 * @param to		the msrps uri of the peer
+	 * @param address	the local address to connect from
+	 */
+	void connect(final BasicMsrpSession session, final URI to, final InetAddress address) {
+		session.connecting(to);
+		Runnable task = new Runnable() {
+			public void run() {
+				Session msrp;
+				try {
+					msrp = Session.create(true, true, to, address);
+				} catch (Exception e) {
+					connectFailed(session, e);
+					return;
+				}
+				if (!session.attach(msrp)) {
+					msrp.tearDown();		// the activity ended meanwhile.
+					return;
+				}
+				msrp.setListener(new MsrpSessionListener(MsrpResourceAdaptor.this, session));
+				session.connected();
+			}
+		};
+		ThreadPoolExecutor c = connector;
+		try {
+			if (c == null)
+				throw new RejectedExecutionException("RA not active");
+			c.execute(task);
+		} catch (RejectedExecutionException e) {
+			connectFailed(session, e);
+		}
+	}
+
+	private void connectFailed(BasicMsrpSession session, Exception cause) {
+		if (!session.markLost())
+			return;
+		if (trc.isInfoEnabled())
+			trc.info("Failed to connect MSRP session " + session.getSessionId() + ": " + cause);
+		metrics.connectionLost();
+		// there is no MSRP session to report on.
+		fireEvent(new ConnectionLostEvent(null, cause), new MsrpActivityHandle(session.getSessionId()));
+		endActivity(session.getSessionId());
+	}
+
+	/**
+	 * Tear down all sessions still active and end their activities, in
+	 * parallel and within the configured deadline.
+	 */
+	private void closeSessions() {
+		Map<MsrpActivityHandle, MsrpSession> current = activities;
+		if (current == null || current.isEmpty())
+			return;
+		long start = System.currentTimeMillis();
+		SessionTeardown teardown = new SessionTeardown(this, raContext.getEntityName(),
+				shutdownThreads, shutdownTimeout);
+		teardown.run(current.values());
+		metrics.sessionsClosed(teardown.getClean(), teardown.getForced());
+		if (trc.isInfoEnabled())
+			trc.info(String.format("Closed %d MSRP session(s) cleanly, forced %d, in %d ms.",
+					teardown.getClean(), teardown.getForced(), System.currentTimeMillis() - start));
+	}
+
+	private void registerMetrics(String entityName) {
+		try {
+			ObjectName name = new ObjectName("org.mobicents.slee.resource.msrp:type=MsrpResourceAdaptor,name="
+					+ ObjectName.quote(entityName));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+			metricsName = name;
+		} catch (Exception e) {
+			trc.warning("Failed to register metrics MBean, continuing without.", e);
+		}
+	}
+
+	private void unregisterMetrics() {
+		if (metricsName == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+		} catch (Exception e) {
+			trc.warning("Failed to unregister metrics MBean " + metricsName, e);
+		}
+		metricsName = null;
+	}
 
 	private void endActivity(ActivityHandle handle) {
 		try {
@@ -284,4 +1120,90 @@ public class MsrpResourceAdaptor implements ResourceAdaptor {
 			trc.severe("Failed to end activity " + handle, e);
 		}
 	}
+
+	// config helpers ------------------
+	private static String getAddressProperty(ConfigProperties properties) {
+		String value = getStringProperty(properties, IPADDRESS_CONFIG_PROPERTY);
+		return value == null ? DEFAULT_MSRP_IPADDRESS : value;
+	}
+
+	/**
+	 * @param hosts the configured, comma-separated, addresses
+	 * @return the ones that could be resolved.
+	 */
+	private MsrpListeningPoint[] resolve(String hosts) {
+		List<MsrpListeningPoint> points = new ArrayList<MsrpListeningPoint>();
+		for (String host : hosts.split(",")) {
+			host = host.trim();
+			if (host.length() == 0)
+				continue;
+			try {
+				points.add(new MsrpListeningPoint(InetAddress.getByName(host)));
+			} catch (UnknownHostException e) {
+				trc.severe("Unknown host: " + host, e);
+			}
+		}
+		return points.toArray(new MsrpListeningPoint[points.size()]);
+	}
+
+	/**
+	 * @param strategy	<tt>roundRobin</tt>, <tt>leastSessions</tt> or the name of a
+	 * 					{@link ListeningPointSelector} implementation; null for the default
+	 * @return a fresh selector
+	 * @throws Exception when the strategy cannot be instantiated
+	 */
+	private ListeningPointSelector getSelector(String strategy) throws Exception {
+		if (strategy == null || DEFAULT_STRATEGY.equalsIgnoreCase(strategy))
+			return new ListeningPointSelector.RoundRobin();
+		if ("leastSessions".equalsIgnoreCase(strategy))
+			return new ListeningPointSelector.LeastSessions();
+		return Class.forName(strategy, true, getClass().getClassLoader())
+				.asSubclass(ListeningPointSelector.class).getDeclaredConstructor().newInstance();
+	}
+
+	private static ReportCorrelator.Mode getReportMode(String mode) throws IllegalArgumentException {
+		if (mode == null)
+			return ReportCorrelator.Mode.ALL;
+		return ReportCorrelator.Mode.valueOf(mode.toUpperCase(Locale.ENGLISH));
+	}
+
+	private static int getIntProperty(ConfigProperties properties, String name, int defaultValue)
+			throws NumberFormatException {
+		ConfigProperties.Property property = properties.getProperty(name);
+		if (property == null || property.getValue() == null)
+			return defaultValue;
+		Object value = property.getValue();
+		if (value instanceof Number)
+			return ((Number) value).intValue();
+		return Integer.parseInt(value.toString().trim());
+	}
+
+	private static long getLongProperty(ConfigProperties properties, String name, long defaultValue)
+			throws NumberFormatException {
+		ConfigProperties.Property property = properties.getProperty(name);
+		if (property == null || property.getValue() == null)
+			return defaultValue;
+		Object value = property.getValue();
+		if (value instanceof Number)
+			return ((Number) value).longValue();
+		return Long.parseLong(value.toString().trim());
+	}
+
+	private static String getStringProperty(ConfigProperties properties, String name) {
+		ConfigProperties.Property property = properties.getProperty(name);
+		if (property == null || property.getValue() == null)
+			return null;
+		String value = property.getValue().toString().trim();
+		return value.length() == 0 ? null : value;
+	}
+
+	private static boolean getBooleanProperty(ConfigProperties properties, String name, boolean defaultValue) {
+		ConfigProperties.Property property = properties.getProperty(name);
+		if (property == null || property.getValue() == null)
+			return defaultValue;
+		Object value = property.getValue();
+		if (value instanceof Boolean)
+			return ((Boolean) value).booleanValue();
+		return Boolean.parseBoolean(value.toString().trim());
+	}
 }
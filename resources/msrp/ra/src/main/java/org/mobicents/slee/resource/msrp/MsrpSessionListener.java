@@ -22,6 +22,9 @@ package org.mobicents.slee.resource.msrp;
 
 //import javax.slee.facilities.Tracer;
 
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
 import javax.net.msrp.*;
 import javax.net.msrp.events.MessageAbortedEvent;
 import javax.net.msrp.ConnectionLostEvent;
@@ -29,7 +32,6 @@ import javax.net.msrp.IncomingMessage;
 import javax.net.msrp.Message;
 import javax.net.msrp.Session;
 import javax.net.msrp.Transaction;
-import javax.net.msrp.ReportEvent;
 
 /**
  * Catches events from the MSRP stack.
@@ -39,12 +41,19 @@ class MsrpSessionListener implements SessionListener {
 	private MsrpResourceAdaptor ra;
 //	private final Tracer trc;
 
-	private MsrpSession session;
+	private BasicMsrpSession session;
+	/** the activity of the session, the same for all its events */
+	private final MsrpActivityHandle handle;
+
+	/** progress reported so far, of messages being sent */
+	private final ConcurrentHashMap<Message, ProgressPolicy.Progress> progress =
+			new ConcurrentHashMap<Message, ProgressPolicy.Progress>();
 
-	public MsrpSessionListener(MsrpResourceAdaptor ra, MsrpSession session) {
+	public MsrpSessionListener(MsrpResourceAdaptor ra, BasicMsrpSession session) {
 		this.ra = ra;
 //		this.trc = ra.getTracer();
 		this.session = session;
+		this.handle = new MsrpActivityHandle(session.getSessionId());
 	}
 
 	/* (non-Javadoc)
@@ -52,11 +61,28 @@ class MsrpSessionListener implements SessionListener {
 	 */
 	@Override
 	public boolean acceptHook(Session session, IncomingMessage message) {
-		if (!this.session.getSession().equals(session))
+		if (!this.session.getSession().equals(session)) {
+			ra.getMetrics().rejected(MsrpRaMetrics.Rejection.UNKNOWN_SESSION);
+			return false;
+		}
+		this.session.received();
+		int credits = ra.getEventCredits();
+		if (credits > 0 && !this.session.hasCredit(credits)) {
+			ra.getMetrics().rejected(MsrpRaMetrics.Rejection.BACKPRESSURE);
 			return false;
-		if (message.getSize() > BasicMsrpSession.MAX_SIZE)	// too big.
+		}
+		DataContainerFactory storage = ra.getDataContainerFactory();
+		if (!storage.accepts(message.getSize())) {	// too big.
+			ra.getMetrics().rejected(MsrpRaMetrics.Rejection.TOO_LARGE);
 			return false;
-		message.setDataContainer(new MemoryDataContainer((int) message.getSize()));
+		}
+		try {
+			message.setDataContainer(storage.create(message.getSize()));
+		} catch (IOException e) {
+			ra.getTracer().warning("No storage for incoming message, rejected.", e);
+			ra.getMetrics().rejected(MsrpRaMetrics.Rejection.NO_STORAGE);
+			return false;
+		}
 		return true;
 	}
 
@@ -65,7 +91,8 @@ class MsrpSessionListener implements SessionListener {
 	 */
 	@Override
 	public void receivedMessage(Session session, IncomingMessage message) {
-		MsrpActivityHandle handle = new MsrpActivityHandle(this.session.getSessionId());
+		this.session.received();
+		ra.getMetrics().messageReceived(message.getSize());
 		ra.fireEvent(message, handle);
 	}
 
@@ -74,9 +101,17 @@ class MsrpSessionListener implements SessionListener {
 	 */
 	@Override
 	public void receivedReport(Session session, Transaction report) {
-		MsrpActivityHandle handle = new MsrpActivityHandle(this.session.getSessionId());
-		ReportEvent event = new ReportEvent(session, report.getStatusHeader());
-		ra.fireEvent(event, handle);
+		this.session.received();
+		if (this.session.isKeepalive(report.getMessageID())) {
+			// the RA's own: only of interest when it failed.
+			StatusHeader status = report.getStatusHeader();
+			if (status != null && status.getStatusCode() != 200)
+				this.session.keepaliveFailed();
+			return;
+		}
+		ReportCorrelator reports = ra.getReports();
+		if (reports != null)
+			reports.received(handle, session, report);
 	}
 
 	/* (non-Javadoc)
@@ -84,7 +119,10 @@ class MsrpSessionListener implements SessionListener {
 	 */
 	@Override
 	public void abortedMessageEvent(MessageAbortedEvent abortEvent) {
-		MsrpActivityHandle handle = new MsrpActivityHandle(this.session.getSessionId());
+		if (abortEvent.getMessage() != null) {
+			progress.remove(abortEvent.getMessage());
+			this.session.sendDone(abortEvent.getMessage());
+		}
 		ra.fireEvent(abortEvent, handle);
 	}
 
@@ -93,8 +131,30 @@ class MsrpSessionListener implements SessionListener {
 	 */
 	@Override
 	public void updateSendStatus(Session session, Message message, long numberBytesSent) {
-        MsrpActivityHandle handle = new MsrpActivityHandle(this.session.getSessionId());
-        UpdateSendEvent event = new UpdateSendEvent(session, message, numberBytesSent);
+		this.session.sent();
+		this.session.sendProgress(message);
+		ReportCorrelator reports = ra.getReports();
+		if (reports != null)
+			reports.sending(message);
+		long size = message.getSize();
+		boolean complete = size >= 0 && numberBytesSent >= size;
+		if (complete)
+			this.session.sendDone(message);
+		ProgressPolicy policy = ra.getProgressPolicy();
+		if (!policy.reportsAll()) {
+			if (complete) {
+				progress.remove(message);
+			} else {
+				ProgressPolicy.Progress sent = progress.get(message);
+				if (sent == null) {
+					sent = policy.start();
+					progress.put(message, sent);
+				}
+				if (!policy.report(sent, numberBytesSent, false))
+					return;				// coalesced into a later update.
+			}
+		}
+        UpdateSendEvent event = ra.newUpdateSendEvent(session, message, numberBytesSent);
         ra.fireEvent(event, handle);
 	}
 
@@ -103,7 +163,10 @@ class MsrpSessionListener implements SessionListener {
 	 */
 	@Override
 	public void connectionLost(Session session, Throwable cause) {
-		MsrpActivityHandle handle = new MsrpActivityHandle(this.session.getSessionId());
+		progress.clear();
+		if (!this.session.markLost())
+			return;				// already reported.
+		ra.getMetrics().connectionLost();
 		ConnectionLostEvent event = new ConnectionLostEvent(session, cause);
 		ra.fireEvent(event, handle);
 		ra.endActivity(this.session.getSessionId());
@@ -114,7 +177,7 @@ class MsrpSessionListener implements SessionListener {
 	 */
 	@Override
 	public void receivedNickname(Session session, Transaction request) {
-		MsrpActivityHandle handle = new MsrpActivityHandle(this.session.getSessionId());
+		this.session.received();
 		NicknameEvent event = new NicknameEvent(session, request);
 		ra.fireEvent(event, handle);
 	}
@@ -124,6 +187,7 @@ class MsrpSessionListener implements SessionListener {
 	 */
 	@Override
 	public void receivedNickNameResult(Session session, TransactionResponse result) {
+		this.session.received();
 		// TODO Auto-generated method stub
 	}
 }
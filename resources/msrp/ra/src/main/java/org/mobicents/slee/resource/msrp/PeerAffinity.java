@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the sessions towards one peer on one local address.
+ * <BR>
+ * MSRP sessions may share a connection (RFC 4975, 8.1), the receiver
+ * demultiplexing them by the session id in the To-Path. A connection can
+ * only be shared by sessions bound to the same local address though, which
+ * a selector spreading sessions over the listening points prevents.
+ * So the first session towards a peer gets its listening point from the
+ * selector, the following ones get the same one, for as long as any session
+ * towards that peer is left.
+ * <BR>
+ * It is a hint, off by default. A session whose peer is only known once it
+ * is bound, as that of a session waiting for the peer to connect, is not
+ * moved: it only counts towards the peer when it is on the peer's address.
+ * <BR>
+ * This only makes sharing possible. The MSRP stack opens the connections,
+ * the RA cannot: whether sessions towards one peer end up on one connection
+ * is up to the stack, otherwise the number of connections is unchanged.
+ * <BR>
+ * A peer is identified by the scheme, host and port of the first hop of the
+ * path towards it: sessions to one relay are towards one peer.
+ *
+ * @author tuijldert
+ */
+class PeerAffinity {
+	private final Map<String, Peer> peers = new HashMap<String, Peer>();
+
+	/**
+	 * @param uri	the first hop of a path
+	 * @return the peer the uri is at, null if it has no host
+	 */
+	static String peerOf(URI uri) {
+		if (uri == null || uri.getHost() == null)
+			return null;
+		String scheme = uri.getScheme() == null ? "msrp" : uri.getScheme().toLowerCase();
+		return scheme + "://" + uri.getHost().toLowerCase() + ":" + uri.getPort();
+	}
+
+	/**
+	 * @param peer	as returned by {@link #peerOf(URI)}
+	 * @return the listening point sessions towards this peer are bound to, null if none
+	 */
+	synchronized MsrpListeningPoint get(String peer) {
+		Peer p = peers.get(peer);
+		return p == null ? null : p.point;
+	}
+
+	/**
+	 * Account a new session to a peer, in one go with picking its listening point.
+	 * @param peer		as returned by {@link #peerOf(URI)}
+	 * @param points	the configured listening points, never empty
+	 * @param selector	picks the listening point of a peer without sessions
+	 * @return the listening point to bind the session to: that of the peer
+	 */
+	synchronized MsrpListeningPoint join(String peer, MsrpListeningPoint[] points,
+			ListeningPointSelector selector) {
+		Peer p = peers.get(peer);
+		if (p == null)
+			peers.put(peer, p = new Peer(points.length == 1 ? points[0] : selector.select(points)));
+		p.sessions++;
+		return p.point;
+	}
+
+	/**
+	 * Account a session that is bound already to a peer, if it is bound to
+	 * the listening point of the peer: a session on another local address
+	 * cannot share a connection with the other sessions towards the peer.
+	 * @param peer	as returned by {@link #peerOf(URI)}
+	 * @param point	the listening point the session is bound to; becomes that
+	 * 				of the peer when it is the first session towards it
+	 * @return whether the session was accounted to the peer
+	 */
+	synchronized boolean join(String peer, MsrpListeningPoint point) {
+		Peer p = peers.get(peer);
+		if (p == null)
+			peers.put(peer, p = new Peer(point));
+		else if (p.point != point)
+			return false;
+		p.sessions++;
+		return true;
+	}
+
+	/**
+	 * A session towards the peer ended.
+	 * @param peer	as returned by {@link #peerOf(URI)}
+	 */
+	synchronized void leave(String peer) {
+		Peer p = peers.get(peer);
+		if (p != null && --p.sessions <= 0)
+			peers.remove(peer);
+	}
+
+	/**
+	 * @return number of sessions per peer
+	 */
+	synchronized Map<String, Integer> getSessions() {
+		Map<String, Integer> counts = new HashMap<String, Integer>(peers.size());
+		for (Map.Entry<String, Peer> e : peers.entrySet())
+			counts.put(e.getKey(), e.getValue().sessions);
+		return counts;
+	}
+
+	synchronized void clear() {
+		peers.clear();
+	}
+
+	private static final class Peer {
+		final MsrpListeningPoint point;
+		int sessions;
+
+		Peer(MsrpListeningPoint point) {
+			this.point = point;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which send progress updates of the MSRP stack become an
+ * {@link javax.net.msrp.UpdateSendEvent}.
+ * <BR>
+ * Completion is always reported. Intermediate updates are reported once
+ * both at least <tt>bytes</tt> were sent and <tt>interval</tt> ms passed
+ * since the previous report; the updates in between are coalesced.
+ * With both at 0 every update is reported.
+ *
+ * @author tuijldert
+ */
+final class ProgressPolicy {
+	static final ProgressPolicy ALL = new ProgressPolicy(0L, 0L, false);
+
+	private final long bytes;
+	private final long interval;
+	private final boolean completionOnly;
+
+	/**
+	 * @param bytes				min. number of bytes sent between reports
+	 * @param interval			min. time (ms) between reports
+	 * @param completionOnly	only report a completed send
+	 */
+	ProgressPolicy(long bytes, long interval, boolean completionOnly) {
+		this.bytes = bytes;
+		this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+		this.completionOnly = completionOnly;
+	}
+
+	boolean reportsAll() {
+		return !completionOnly && bytes == 0L && interval == 0L;
+	}
+
+	/**
+	 * @return a fresh progress record for a message about to be reported on.
+	 */
+	Progress start() {
+		return start(System.nanoTime());
+	}
+
+	/**
+	 * @param now	the time (ns), as given by {@link System#nanoTime()}
+	 * @return a fresh progress record for a message about to be reported on.
+	 */
+	Progress start(long now) {
+		return new Progress(now);
+	}
+
+	/**
+	 * @param progress	what has been reported on this message so far
+	 * @param bytesSent	bytes sent now
+	 * @param complete	whether the message has been sent completely
+	 * @return whether to report this update
+	 */
+	boolean report(Progress progress, long bytesSent, boolean complete) {
+		return report(progress, bytesSent, complete, complete || completionOnly ? 0L : System.nanoTime());
+	}
+
+	/**
+	 * @param progress	what has been reported on this message so far
+	 * @param bytesSent	bytes sent now
+	 * @param complete	whether the message has been sent completely
+	 * @param now		the time (ns), as given by {@link System#nanoTime()}
+	 * @return whether to report this update
+	 */
+	boolean report(Progress progress, long bytesSent, boolean complete, long now) {
+		if (complete)
+			return true;
+		if (completionOnly)
+			return false;
+		if (bytesSent - progress.bytesReported < bytes || now - progress.reportedAt < interval)
+			return false;
+		progress.bytesReported = bytesSent;
+		progress.reportedAt = now;
+		return true;
+	}
+
+	/**
+	 * Progress reporting state of a single message.
+	 */
+	static final class Progress {
+		private long bytesReported;
+		private long reportedAt;
+
+		private Progress(long startedAt) {
+			this.reportedAt = startedAt;
+		}
+	}
+}
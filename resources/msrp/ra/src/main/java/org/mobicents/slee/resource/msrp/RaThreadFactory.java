@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the daemon threads of an RA entity, named
+ * <tt>MsrpRA-&lt;entity&gt;-&lt;role&gt;-&lt;n&gt;</tt>.
+ *
+ * @author tuijldert
+ */
+final class RaThreadFactory implements ThreadFactory {
+	private final String prefix;
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * @param name	name of the RA entity
+	 * @param role	what the threads do
+	 */
+	RaThreadFactory(String name, String role) {
+		this.prefix = "MsrpRA-" + name + "-" + role + "-";
+	}
+
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, prefix + count.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	}
+}
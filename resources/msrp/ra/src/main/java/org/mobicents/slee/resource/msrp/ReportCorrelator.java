@@ -0,0 +1,334 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.msrp.Message;
+import javax.net.msrp.Session;
+import javax.net.msrp.StatusHeader;
+import javax.net.msrp.Transaction;
+
+/**
+ * Correlates incoming REPORTs to the messages they report on, by Message-ID.
+ * <BR>
+ * In {@link Mode#ALL} every REPORT is fired as it comes in. Otherwise every
+ * message sent that requests success reports is tracked, and the reports on
+ * its chunks are collapsed into one outcome: it is delivered once all its
+ * bytes are reported delivered, whatever the overlap between the reported
+ * ranges; it failed on the first negative report, or when the timeout passes
+ * without news on it: neither progress sending it nor a report.
+ * A message that requests no success reports (the MSRP default) is not
+ * tracked, as its silence means nothing: only a negative report on it yields
+ * an outcome.
+ * Outcomes are fired as a single {@link javax.net.msrp.ReportEvent}.
+ * <BR>
+ * Messages sent before the mode was changed are tracked from their first
+ * report. A message is remembered until it times out, so late reports on
+ * it are ignored rather than fired again.
+ *
+ * @author tuijldert
+ */
+class ReportCorrelator {
+	/** what to fire */
+	enum Mode {
+		/** every REPORT, as received */
+		ALL,
+		/** one outcome per message */
+		MESSAGE,
+		/** only the outcome of failed messages */
+		FAILURES
+	}
+
+	private static final int OK = 200;
+	/** status of a message whose reports stopped coming in */
+	private static final int TIMED_OUT = 408;
+	private static final int MSRP_NAMESPACE = 0;
+
+	private final MsrpResourceAdaptor ra;
+	private final TimingWheel wheel;
+	private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<String, Pending>();
+
+	private volatile Mode mode = Mode.ALL;
+	private volatile long timeout;
+
+	/**
+	 * @param ra	the RA to fire the outcomes through
+	 * @param wheel	times out the messages reported on
+	 */
+	ReportCorrelator(MsrpResourceAdaptor ra, TimingWheel wheel) {
+		this.ra = ra;
+		this.wheel = wheel;
+	}
+
+	/**
+	 * @param mode		what to fire
+	 * @param timeout	time (ms) without news on a message by which it must be completely reported on
+	 */
+	void setMode(Mode mode, long timeout) {
+		this.timeout = timeout;
+		this.mode = mode;
+	}
+
+	/**
+	 * @return number of messages being reported on
+	 */
+	int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * A message was handed to the stack: track it, unless firing all REPORTs
+	 * or no success report is to come.
+	 * @param session	the session it was sent on
+	 * @param message	the message, null if unknown
+	 */
+	void sent(BasicMsrpSession session, Message message) {
+		if (message != null && message.wantSuccessReport())
+			sent(new MsrpActivityHandle(session.getSessionId()), (Session) session.getSession(),
+					message.getMessageID(), message.getSize());
+	}
+
+	/**
+	 * @param handle	the activity of the session it was sent on
+	 * @param session	the MSRP session
+	 * @param messageId	Message-ID of the message, null if unknown
+	 * @param size		size of the message, -1 if unknown
+	 */
+	void sent(MsrpActivityHandle handle, Session session, String messageId, long size) {
+		if (mode == Mode.ALL || messageId == null)
+			return;
+		Pending sent = new Pending(messageId, handle, session);
+		sent.expect(size);
+		if (pending.putIfAbsent(messageId, sent) == null)
+			wheel.schedule(sent, timeout);
+	}
+
+	/**
+	 * More of a message was sent: it has more time to be reported on.
+	 * @param message the message
+	 */
+	void sending(Message message) {
+		sending(message.getMessageID());
+	}
+
+	/**
+	 * @param messageId	Message-ID of the message, null if unknown
+	 */
+	void sending(String messageId) {
+		if (mode == Mode.ALL)
+			return;
+		Pending sent = messageId == null ? null : pending.get(messageId);
+		if (sent != null)
+			sent.touch();
+	}
+
+	/**
+	 * A REPORT came in.
+	 * @param handle	the activity of the session
+	 * @param session	the MSRP session it came in on
+	 * @param report	the REPORT
+	 */
+	void received(MsrpActivityHandle handle, Session session, Transaction report) {
+		StatusHeader status = report.getStatusHeader();
+		received(handle, session, report.getMessageID(), status.getNamespace(), status.getStatusCode(),
+				status.getComment(), report.getByteRange(), report.getTotalMessageBytes());
+	}
+
+	/**
+	 * @param handle		the activity of the session
+	 * @param session		the MSRP session it came in on
+	 * @param messageId		Message-ID reported on, null if unknown
+	 * @param namespace		namespace of the status
+	 * @param statusCode	the status code
+	 * @param comment		comment of the status, null if none
+	 * @param range			the bytes reported on (first and last, from 1), null if unknown
+	 * @param total			size of the message, -1 if unknown
+	 */
+	void received(MsrpActivityHandle handle, Session session, String messageId, int namespace, int statusCode,
+			String comment, long[] range, long total) {
+		if (mode == Mode.ALL || messageId == null) {
+			fire(handle, session, messageId, namespace, statusCode, comment);
+			return;
+		}
+		Pending message = pending.get(messageId);
+		if (message == null) {
+			message = new Pending(messageId, handle, session);
+			Pending other = pending.putIfAbsent(messageId, message);
+			if (other == null)
+				wheel.schedule(message, timeout);
+			else
+				message = other;
+		}
+		message.touch();
+		if (statusCode != OK) {
+			if (message.complete())
+				fire(message, namespace, statusCode, comment);
+		} else if (message.delivered(range, total)) {
+			fire(message, MSRP_NAMESPACE, OK, null);
+		}
+	}
+
+	private void fire(Pending message, int namespace, int statusCode, String comment) {
+		if (statusCode == OK && mode == Mode.FAILURES)
+			return;
+		fire(message.handle, message.session, message.messageId, namespace, statusCode, comment);
+	}
+
+	/**
+	 * Fire a {@link javax.net.msrp.ReportEvent} on the activity.
+	 */
+	void fire(MsrpActivityHandle handle, Session session, String messageId, int namespace, int statusCode,
+			String comment) {
+		ra.fireEvent(ra.newReportEvent(session, messageId, namespace, statusCode, comment), handle);
+	}
+
+	/**
+	 * @return whether the activity still exists
+	 */
+	boolean isActive(MsrpActivityHandle handle) {
+		return ra.getActivity(handle) != null;
+	}
+
+	/**
+	 * @return the time (ms)
+	 */
+	long now() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * A message being tracked, with the reports received on it so far.
+	 */
+	private final class Pending implements TimingWheel.Task {
+		private final String messageId;
+		private final MsrpActivityHandle handle;
+		private final Session session;
+		/** the bytes reported delivered: first (from 1) to last, disjoint and not adjacent */
+		private final TreeMap<Long, Long> ranges = new TreeMap<Long, Long>();
+		private long size = -1L;
+		private boolean complete;
+		/** when (ms) there was last news on the message */
+		private volatile long lastNews = now();
+
+		Pending(String messageId, MsrpActivityHandle handle, Session session) {
+			this.messageId = messageId;
+			this.handle = handle;
+			this.session = session;
+		}
+
+		/**
+		 * @param size size of the message, -1 if unknown
+		 */
+		synchronized void expect(long size) {
+			this.size = size;
+		}
+
+		void touch() {
+			lastNews = now();
+		}
+
+		/**
+		 * @return whether the outcome is known
+		 */
+		synchronized boolean isComplete() {
+			return complete;
+		}
+
+		/**
+		 * @return true only the first time: whoever gets it fires the outcome.
+		 */
+		synchronized boolean complete() {
+			if (complete)
+				return false;
+			complete = true;
+			return true;
+		}
+
+		/**
+		 * @param range	the bytes reported delivered (first and last, from 1), null if unknown
+		 * @param total	size of the message, -1 if unknown
+		 * @return whether this completes delivery of the message
+		 */
+		synchronized boolean delivered(long[] range, long total) {
+			if (complete)
+				return false;
+			if (total >= 0)
+				size = total;
+			if (range != null && range.length == 2 && range[0] >= 1 && range[1] >= range[0])
+				add(range[0], range[1]);
+			return size >= 0 && deliveredUpTo() >= size && complete();
+		}
+
+		/**
+		 * Merge a range into those reported so far.
+		 */
+		private void add(long first, long last) {
+			Map.Entry<Long, Long> before = ranges.floorEntry(first);
+			if (before != null && before.getValue() >= first - 1) {
+				first = before.getKey();
+				last = Math.max(last, before.getValue());
+			}
+			Map.Entry<Long, Long> after;
+			while ((after = ranges.ceilingEntry(first)) != null && after.getKey() <= last + 1) {
+				last = Math.max(last, after.getValue());
+				ranges.remove(after.getKey());
+			}
+			ranges.put(first, last);
+		}
+
+		/**
+		 * @return the last byte up to which all bytes were reported delivered, 0 if none
+		 */
+		private long deliveredUpTo() {
+			Map.Entry<Long, Long> first = ranges.firstEntry();
+			return first == null || first.getKey() != 1L ? 0L : first.getValue();
+		}
+
+		/**
+		 * Give up waiting for more reports, unless there was news meanwhile:
+		 * a message partly delivered of unknown size counts as delivered,
+		 * any other incomplete one failed.
+		 */
+		public void expired(TimingWheel.Timeout timeout) {
+			long quiet = now() - lastNews;
+			long limit = ReportCorrelator.this.timeout;
+			if (quiet < limit && !isComplete()) {
+				wheel.schedule(this, limit - quiet);
+				return;
+			}
+			pending.remove(messageId, this);
+			boolean delivered;
+			synchronized (this) {
+				delivered = size < 0 && !ranges.isEmpty();
+			}
+			// nobody to tell once the session ended.
+			if (complete() && isActive(handle)) {
+				if (delivered)
+					fire(this, MSRP_NAMESPACE, OK, null);
+				else
+					fire(this, MSRP_NAMESPACE, TIMED_OUT, "No complete report received in time");
+			}
+		}
+	}
+}
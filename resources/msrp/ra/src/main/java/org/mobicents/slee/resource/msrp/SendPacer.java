@@ -0,0 +1,231 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sends the large messages of a session one at a time.
+ * <BR>
+ * A large message is held back while another one is being sent, and handed
+ * over once that one is reported complete or aborted. Other messages are
+ * not paced, so they wait for one large message at most. A large message
+ * that makes no progress for the timeout is no longer waited for: it is
+ * not aborted, but the next one is handed over.
+ * <BR>
+ * The stack may report a message complete before the call handing it over
+ * returned; such completions are remembered, so it is not waited for.
+ *
+ * @param <O> a message to be sent
+ * @author tuijldert
+ */
+abstract class SendPacer<O> {
+	/** large messages held back while another one is being sent */
+	private ArrayDeque<O> held;
+	private boolean sending;
+	/** the stack's handle on the message being sent, null while being handed over */
+	private Object current;
+	/** when (ms) there was last progress sending the current message */
+	private volatile long lastProgress;
+	/** messages that finished while being handed over */
+	private Set<Object> finishedEarly;
+
+	/**
+	 * Hand a message to the stack.
+	 * @param message	the message
+	 * @return the stack's handle on it, as passed to {@link #done(Object)}; null if none
+	 * @throws IOException the message could not be handed over
+	 */
+	abstract Object transmit(O message) throws IOException;
+
+	/**
+	 * A held back message could not be handed over once its turn came.
+	 * @param message	the message
+	 * @param e			why
+	 */
+	abstract void failed(O message, Exception e);
+
+	/**
+	 * A held back message is dropped, as the session ended.
+	 * @param message	the message
+	 */
+	abstract void discard(O message);
+
+	/**
+	 * @return max. time (ms) without progress on the current message, 0 for no limit
+	 */
+	abstract long getTimeout();
+
+	/**
+	 * @return the timer to time the current message out with, null if none
+	 */
+	abstract TimingWheel getTimer();
+
+	/**
+	 * The current message is no longer waited for.
+	 * @param handle the stack's handle on it
+	 */
+	abstract void timedOut(Object handle);
+
+	/**
+	 * Send a large message, or hold it back while another one is being sent.
+	 * @param message	the message
+	 * @throws IOException the message could not be handed over right away
+	 */
+	void send(O message) throws IOException {
+		synchronized (this) {
+			if (sending) {
+				if (held == null)
+					held = new ArrayDeque<O>();
+				held.add(message);
+				return;
+			}
+			sending = true;
+		}
+		boolean done = true;
+		try {
+			done = start(message);
+		} finally {
+			if (done)
+				next();
+		}
+	}
+
+	/**
+	 * Part of a message was sent.
+	 * @param handle the stack's handle on the message
+	 */
+	void progress(Object handle) {
+		if (handle == current)
+			lastProgress = System.currentTimeMillis();
+	}
+
+	/**
+	 * Sending a message finished, one way or another.
+	 * @param handle the stack's handle on the message
+	 */
+	void done(Object handle) {
+		synchronized (this) {
+			if (!sending)
+				return;
+			if (handle != current) {
+				if (current == null) {
+					if (finishedEarly == null)
+						finishedEarly = new HashSet<Object>();
+					finishedEarly.add(handle);
+				}
+				return;
+			}
+		}
+		next();
+	}
+
+	/**
+	 * The session ended: drop the messages held back.
+	 */
+	void clear() {
+		List<O> dropped;
+		synchronized (this) {
+			if (held == null)
+				return;
+			dropped = new ArrayList<O>(held);
+			held = null;
+		}
+		for (O message : dropped)
+			discard(message);
+	}
+
+	/**
+	 * @return whether sending it finished already
+	 */
+	private boolean start(O message) throws IOException {
+		Object handle = transmit(message);
+		synchronized (this) {
+			boolean done = handle == null || (finishedEarly != null && finishedEarly.contains(handle));
+			finishedEarly = null;
+			if (done)
+				return true;
+			current = handle;
+			lastProgress = System.currentTimeMillis();
+		}
+		long timeout = getTimeout();
+		TimingWheel timer = getTimer();
+		if (timeout > 0L && timer != null)
+			timer.schedule(new Watch(handle), timeout);
+		return false;
+	}
+
+	/**
+	 * The current message is done: start the next one held back, if any.
+	 */
+	private void next() {
+		while (true) {
+			O next;
+			synchronized (this) {
+				current = null;
+				next = held == null ? null : held.poll();
+				if (next == null) {
+					sending = false;
+					return;
+				}
+			}
+			try {
+				if (!start(next))
+					return;
+			} catch (Exception e) {
+				failed(next, e);
+			}
+		}
+	}
+
+	/**
+	 * Stops waiting for a message that makes no progress.
+	 */
+	private final class Watch implements TimingWheel.Task {
+		private final Object handle;
+
+		Watch(Object handle) {
+			this.handle = handle;
+		}
+
+		public void expired(TimingWheel.Timeout timeout) {
+			long limit = getTimeout();
+			synchronized (SendPacer.this) {
+				if (current != handle)
+					return;			// done already.
+				long quiet = System.currentTimeMillis() - lastProgress;
+				TimingWheel timer = getTimer();
+				if (limit > 0L && quiet < limit && timer != null) {
+					timer.schedule(this, limit - quiet);
+					return;
+				}
+				current = null;		// no longer waited for, whatever comes of it.
+			}
+			timedOut(handle);
+			next();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.slee.facilities.Tracer;
+
+import javax.net.msrp.Session;
+
+/**
+ * Closes many MSRP sessions at once, on deactivation of the RA entity.
+ * <BR>
+ * The sessions are torn down and their activities ended by a bounded pool
+ * of threads. Whatever is not done by the deadline, or fails, is forced:
+ * its activity is ended without waiting for the MSRP session any longer.
+ *
+ * @author tuijldert
+ */
+class SessionTeardown {
+	private final MsrpResourceAdaptor ra;
+	private final Tracer trc;
+	private final String name;
+	private final int threads;
+	private final long timeout;
+
+	private int clean;
+	private int forced;
+
+	/**
+	 * @param ra		the RA the sessions belong to
+	 * @param name		used to name the teardown threads
+	 * @param threads	max. number of sessions closed at the same time
+	 * @param timeout	time (ms) allowed for closing all sessions
+	 */
+	SessionTeardown(MsrpResourceAdaptor ra, String name, int threads, long timeout) {
+		this.ra = ra;
+		this.trc = ra.getTracer();
+		this.name = name;
+		this.threads = threads;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Close the given sessions, returning by the deadline.
+	 * @param sessions the sessions to close
+	 */
+	void run(Collection<MsrpSession> sessions) {
+		if (sessions.isEmpty())
+			return;
+		List<MsrpSession> closing = new ArrayList<MsrpSession>(sessions);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(closing.size());
+		for (final MsrpSession session : closing) {
+			tasks.add(new Callable<Void>() {
+				public Void call() {
+					close(session);
+					return null;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.max(1, Math.min(threads, tasks.size())), new RaThreadFactory(name, "teardown"));
+		List<Future<Void>> results = null;
+		try {
+			results = executor.invokeAll(tasks, timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+		for (int i = 0; i < closing.size(); i++) {
+			if (results != null && isDone(results.get(i))) {
+				clean++;
+			} else {
+				forced++;
+				ra.endActivity(closing.get(i).getSessionId());
+			}
+		}
+	}
+
+	/** @return number of sessions closed in time */
+	int getClean() { return clean; }
+
+	/** @return number of sessions whose activity was ended regardless */
+	int getForced() { return forced; }
+
+	private void close(MsrpSession session) {
+		Session msrp = (Session) session.getSession();
+		if (msrp != null)
+			msrp.tearDown();
+		ra.endActivity(session.getSessionId());
+	}
+
+	private boolean isDone(Future<Void> result) {
+		try {
+			result.get();
+			return true;
+		} catch (CancellationException e) {
+			return false;
+		} catch (ExecutionException e) {
+			trc.warning("Failed to close MSRP session", e.getCause());
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
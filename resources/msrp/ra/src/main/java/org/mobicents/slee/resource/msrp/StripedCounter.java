@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter updated by many threads at once.
+ * <BR>
+ * Each thread adds to one of a number of cells, each on its own cache
+ * line, so concurrent updates hardly ever contend. Reading sums all cells
+ * and is therefore only approximate while updates are going on.
+ *
+ * @author tuijldert
+ */
+final class StripedCounter {
+	/** number of cells, a power of 2 */
+	static final int STRIPES;
+	/** longs per cell: a 64 byte cache line */
+	private static final int PAD = 8;
+
+	static {
+		int stripes = 1;
+		int processors = Runtime.getRuntime().availableProcessors();
+		while (stripes < processors && stripes < 64)
+			stripes <<= 1;
+		STRIPES = stripes;
+	}
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+	void increment() {
+		add(1L);
+	}
+
+	void add(long delta) {
+		cells.getAndAdd(stripe() * PAD, delta);
+	}
+
+	/**
+	 * @return the stripe of the calling thread, below {@link #STRIPES}
+	 */
+	static int stripe() {
+		return (int) (Thread.currentThread().getId() & (STRIPES - 1));
+	}
+
+	long sum() {
+		long sum = 0L;
+		for (int i = 0; i < STRIPES; i++)
+			sum += cells.get(i * PAD);
+		return sum;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Encodes outgoing text as UTF-8, straight from the {@link CharSequence}.
+ * <BR>
+ * Encoders and their scratch buffers are pooled, so encoding allocates
+ * neither an intermediate String nor an oversized byte array. The pool has
+ * a slot per stripe of threads, as {@link StripedCounter} has, and is held
+ * by this class only: the threads of the container never hold on to an
+ * encoder, or the class loader of the RA.
+ * Malformed input is replaced, as {@link String#getBytes(Charset)} does.
+ *
+ * @author tuijldert
+ */
+final class TextEncoder {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** initial size of the scratch buffer */
+	private static final int INITIAL_SIZE = 1024;
+	/** largest scratch buffer kept for the next message */
+	private static final int MAX_KEPT_SIZE = 64 * 1024;
+
+	/** idle encoders, by stripe */
+	private static final AtomicReferenceArray<TextEncoder> POOL =
+			new AtomicReferenceArray<TextEncoder>(StripedCounter.STRIPES);
+
+	private final CharsetEncoder encoder = UTF8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer scratch = ByteBuffer.allocate(INITIAL_SIZE);
+
+	private TextEncoder() { }
+
+	/**
+	 * @return an encoder for the caller alone, until it is {@link #release() released}.
+	 */
+	static TextEncoder take() {
+		TextEncoder encoder = POOL.getAndSet(StripedCounter.stripe(), null);
+		return encoder == null ? new TextEncoder() : encoder;
+	}
+
+	/**
+	 * Hand the encoder back: what it encoded is no longer valid.
+	 */
+	void release() {
+		POOL.compareAndSet(StripedCounter.stripe(), null, this);
+	}
+
+	/**
+	 * @param text the text to encode
+	 * @return the encoded text, in an array of its own.
+	 */
+	static byte[] toBytes(CharSequence text) {
+		TextEncoder encoder = take();
+		try {
+			ByteBuffer encoded = encoder.encode(text);
+			byte[] bytes = new byte[encoded.remaining()];
+			encoded.get(bytes);
+			return bytes;
+		} finally {
+			encoder.release();
+		}
+	}
+
+	/**
+	 * @param text the text to encode
+	 * @return the encoded text, in the encoder's scratch buffer: only valid
+	 * until the next call, or until the encoder is released.
+	 */
+	ByteBuffer encode(CharSequence text) {
+		CharBuffer in = text instanceof CharBuffer ? ((CharBuffer) text).duplicate() : CharBuffer.wrap(text);
+		ByteBuffer out = scratch;
+		if (out.capacity() > MAX_KEPT_SIZE)
+			out = ByteBuffer.allocate(INITIAL_SIZE);
+		out.clear();
+		encoder.reset();
+		try {
+			CoderResult result;
+			while ((result = encoder.encode(in, out, true)).isOverflow())
+				out = grow(out, in.remaining());
+			if (result.isError())
+				result.throwException();
+			while (encoder.flush(out).isOverflow())
+				out = grow(out, 4);
+		} catch (CharacterCodingException e) {
+			// cannot happen: errors are replaced.
+			throw new IllegalStateException(e);
+		}
+		scratch = out;
+		out.flip();
+		return out;
+	}
+
+	private static ByteBuffer grow(ByteBuffer out, int remaining) {
+		int size = Math.max(out.capacity() * 2, out.capacity() + remaining * 3);
+		ByteBuffer larger = ByteBuffer.allocate(size);
+		out.flip();
+		larger.put(out);
+		return larger;
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.slee.facilities.Tracer;
+
+/**
+ * A hashed timing wheel: cheap timeouts for large numbers of sessions.
+ * <BR>
+ * Time is divided in ticks; a timeout is put in the bucket of the tick it
+ * expires in, modulo the wheel size, together with the number of rounds to
+ * go. A single thread visits one bucket per tick. Scheduling and
+ * cancelling are O(1) and never contend with that thread; expiry is
+ * accurate to a tick.
+ * <BR>
+ * Tasks run on the wheel's thread and should not block.
+ *
+ * @author tuijldert
+ */
+class TimingWheel {
+
+	/**
+	 * Something to do when a timeout expires.
+	 */
+	interface Task {
+		void expired(Timeout timeout);
+	}
+
+	private final Tracer trc;
+	private final long tick;
+	private final List<Timeout>[] wheel;
+	private final int mask;
+	private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+	private final Thread worker;
+	private final long startTime;
+
+	/** ticks done, only touched by the worker */
+	private long ticks;
+	private volatile boolean stopped;
+
+	/**
+	 * @param trc		where to trace to
+	 * @param name		used to name the wheel's thread
+	 * @param tick		duration (ms) of a tick
+	 * @param size		number of buckets, rounded up to a power of 2
+	 */
+	@SuppressWarnings("unchecked")
+	TimingWheel(Tracer trc, String name, long tick, int size) {
+		this.trc = trc;
+		this.tick = TimeUnit.MILLISECONDS.toNanos(tick);
+		int buckets = Integer.highestOneBit(Math.max(size, 1) - 1) << 1;
+		if (buckets <= 0)
+			buckets = 1;
+		this.wheel = new List[buckets];
+		for (int i = 0; i < buckets; i++)
+			wheel[i] = new ArrayList<Timeout>();
+		this.mask = buckets - 1;
+		this.startTime = System.nanoTime();
+		this.worker = new RaThreadFactory(name, "timer").newThread(new Worker());
+		worker.start();
+	}
+
+	/**
+	 * @param task	what to do on expiry
+	 * @param delay	time (ms) from now
+	 * @return the timeout, to cancel it
+	 */
+	Timeout schedule(Task task, long delay) {
+		Timeout timeout = new Timeout(task,
+				System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0L)));
+		scheduled.offer(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stop the wheel; pending timeouts never expire.
+	 */
+	void stop() {
+		stopped = true;
+		worker.interrupt();
+	}
+
+	/**
+	 * A scheduled task.
+	 */
+	static final class Timeout {
+		private final Task task;
+		/** when to expire, relative to the wheel's start */
+		private final long deadline;
+		private long rounds;
+		private volatile boolean cancelled;
+
+		private Timeout(Task task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/** do not expire after all */
+		void cancel() {
+			cancelled = true;
+		}
+
+		boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	private final class Worker implements Runnable {
+		public void run() {
+			while (!stopped) {
+				long deadline = tick * (ticks + 1);
+				long sleep = TimeUnit.NANOSECONDS.toMillis(deadline - (System.nanoTime() - startTime) + 999999L);
+				if (sleep > 0L) {
+					try {
+						Thread.sleep(sleep);
+					} catch (InterruptedException e) {
+						continue;		// stopped, most likely.
+					}
+				}
+				transferScheduled();
+				expire(wheel[(int) (ticks & mask)]);
+				ticks++;
+			}
+		}
+
+		/** put newly scheduled timeouts in their buckets */
+		private void transferScheduled() {
+			Timeout timeout;
+			while ((timeout = scheduled.poll()) != null) {
+				if (timeout.cancelled)
+					continue;
+				long expiresAt = Math.max(timeout.deadline / tick, ticks);
+				timeout.rounds = (expiresAt - ticks) / wheel.length;
+				wheel[(int) (expiresAt & mask)].add(timeout);
+			}
+		}
+
+		/** run the timeouts of the current bucket that are due, keep the others */
+		private void expire(List<Timeout> bucket) {
+			int kept = 0;
+			for (int i = 0, n = bucket.size(); i < n; i++) {
+				Timeout timeout = bucket.get(i);
+				if (timeout.cancelled)
+					continue;
+				if (timeout.rounds > 0) {
+					timeout.rounds--;
+					bucket.set(kept++, timeout);
+					continue;
+				}
+				try {
+					timeout.task.expired(timeout);
+				} catch (Throwable e) {
+					trc.severe("Timer task failed", e);
+				}
+			}
+			bucket.subList(kept, bucket.size()).clear();
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.slee.EventTypeID;
+import javax.slee.ServiceID;
+import javax.slee.resource.ReceivableService;
+import javax.slee.resource.ReceivableService.ReceivableEvent;
+
+import org.junit.Test;
+
+/**
+ * Checks routing of the {@link EventIDFilter}, also while services are
+ * (de)activated concurrently with events being filtered.
+ *
+ * @author tuijldert
+ */
+public class EventIDFilterTest {
+	private static final EventTypeID STEADY = new EventTypeID("steady", "test", "1.0");
+	private static final EventTypeID CHURNED = new EventTypeID("churned", "test", "1.0");
+	private static final EventTypeID UNWANTED = new EventTypeID("unwanted", "test", "1.0");
+
+	/** more than fit in one word of the routing table */
+	private static final int CHURN_SERVICES = 130;
+	private static final int CHURN_THREADS = 4;
+	private static final int CHURN_ROUNDS = 500;
+	private static final int READER_THREADS = 4;
+
+	@Test
+	public void filtersOnlyEventsNobodyReceives() {
+		EventIDFilter filter = new EventIDFilter();
+		ReceivableService service = service("a", STEADY);
+		filter.serviceActive(service);
+
+		assertFalse(filter.filterEvent(filter.getSlot(STEADY)));
+		assertTrue(filter.filterEvent(filter.getSlot(UNWANTED)));
+
+		filter.serviceInactive(service);
+		assertTrue(filter.filterEvent(filter.getSlot(STEADY)));
+		assertEquals(1L, filter.getFilteredCount(STEADY));
+		assertEquals(1L, filter.getFilteredCount(UNWANTED));
+	}
+
+	@Test
+	public void keepsEventsOfOtherServices() {
+		EventIDFilter filter = new EventIDFilter();
+		ReceivableService first = service("a", STEADY);
+		ReceivableService second = service("b", STEADY, CHURNED);
+		filter.serviceActive(first);
+		filter.serviceActive(second);
+
+		filter.serviceInactive(second);
+		assertFalse(filter.filterEvent(filter.getSlot(STEADY)));
+		assertTrue(filter.filterEvent(filter.getSlot(CHURNED)));
+
+		// deactivating twice changes nothing.
+		filter.serviceInactive(second);
+		assertFalse(filter.filterEvent(filter.getSlot(STEADY)));
+	}
+
+	@Test
+	public void countsFiredEvents() {
+		EventIDFilter filter = new EventIDFilter();
+		filter.getSlot(STEADY).fired();
+		filter.getSlot(STEADY).fired();
+		assertEquals(Long.valueOf(2L), filter.getFiredCounts().get(STEADY));
+		assertEquals(Long.valueOf(0L), filter.getFilteredCounts().get(STEADY));
+	}
+
+	/**
+	 * While services come and go, an event type of a service that stays
+	 * active is never filtered, and the final routing reflects the final set
+	 * of active services.
+	 */
+	@Test(timeout = 60000L)
+	public void routesConsistentlyDuringServiceChurn() throws Exception {
+		final EventIDFilter filter = new EventIDFilter();
+		filter.serviceActive(service("steady", STEADY));
+		final List<ReceivableService> churned = new ArrayList<ReceivableService>();
+		for (int i = 0; i < CHURN_SERVICES; i++)
+			churned.add(service("churned-" + i, STEADY, CHURNED));
+
+		final AtomicBoolean churning = new AtomicBoolean(true);
+		final AtomicLong steadyFiltered = new AtomicLong();
+		final AtomicLong unwantedChecked = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		List<Thread> churners = new ArrayList<Thread>();
+		List<Thread> readers = new ArrayList<Thread>();
+
+		for (int t = 0; t < CHURN_THREADS; t++) {
+			final int first = t;
+			churners.add(new Thread(new Guarded(failures) {
+				void go() throws Exception {
+					start.await();
+					for (int round = 0; round < CHURN_ROUNDS; round++) {
+						for (int i = first; i < churned.size(); i += CHURN_THREADS)
+							filter.serviceActive(churned.get(i));
+						for (int i = first; i < churned.size(); i += CHURN_THREADS)
+							filter.serviceInactive(churned.get(i));
+					}
+				}
+			}));
+		}
+		for (int t = 0; t < READER_THREADS; t++) {
+			readers.add(new Thread(new Guarded(failures) {
+				void go() throws Exception {
+					EventIDFilter.Slot steady = filter.getSlot(STEADY);
+					start.await();
+					while (churning.get()) {
+						if (filter.filterEvent(steady))
+							steadyFiltered.incrementAndGet();
+						filter.filterEvent(filter.getSlot(CHURNED));
+						if (filter.filterEvent(filter.getSlot(UNWANTED)))
+							unwantedChecked.incrementAndGet();
+					}
+				}
+			}));
+		}
+		for (Thread thread : churners)
+			thread.start();
+		for (Thread thread : readers)
+			thread.start();
+		start.countDown();
+		for (Thread thread : churners)
+			thread.join();
+		churning.set(false);
+		for (Thread thread : readers)
+			thread.join();
+
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals(0L, steadyFiltered.get());
+		assertEquals(0L, filter.getFilteredCount(STEADY));
+		assertEquals(unwantedChecked.get(), filter.getFilteredCount(UNWANTED));
+		// all churned services ended inactive.
+		assertTrue(filter.filterEvent(filter.getSlot(CHURNED)));
+		filter.serviceActive(churned.get(CHURN_SERVICES - 1));
+		assertFalse(filter.filterEvent(filter.getSlot(CHURNED)));
+	}
+
+	private static ReceivableService service(String name, EventTypeID... eventTypes) {
+		final ServiceID id = new ServiceID(name, "test", "1.0");
+		final ReceivableEvent[] events = new ReceivableEvent[eventTypes.length];
+		for (int i = 0; i < eventTypes.length; i++) {
+			final EventTypeID eventType = eventTypes[i];
+			events[i] = new ReceivableEvent() {
+				public EventTypeID getEventType() { return eventType; }
+				public String getResourceOption() { return null; }
+				public boolean isInitialEvent() { return false; }
+			};
+		}
+		return new ReceivableService() {
+			public ServiceID getService() { return id; }
+			public ReceivableEvent[] getReceivableEvents() { return events; }
+		};
+	}
+
+	/**
+	 * Runs a test thread, collecting its failure.
+	 */
+	private abstract static class Guarded implements Runnable {
+		private final List<Throwable> failures;
+
+		Guarded(List<Throwable> failures) {
+			this.failures = failures;
+		}
+
+		abstract void go() throws Exception;
+
+		public void run() {
+			try {
+				go();
+			} catch (Throwable e) {
+				synchronized (failures) {
+					failures.add(e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Latency of small messages sent on a session that also sends bursts of
+ * large ones, with and without sending the large ones one at a time.
+ * <BR>
+ * The connection is simulated: it writes the messages handed to it in
+ * order, a chunk at a time, at a fixed rate, so the figures do not depend
+ * on the machine it runs on.
+ * Not part of the default test run, run it with
+ * <code>mvn test -Dtest=LargeMessageBenchmark</code>.
+ *
+ * @author tuijldert
+ */
+public class LargeMessageBenchmark {
+	/** bytes written per microsecond: 10 MB/s */
+	private static final long RATE = 10L;
+	private static final long CHUNK = 2048L;
+	private static final long SMALL = 1024L;
+	private static final long LARGE = 2L * 1024L * 1024L;
+	/** large messages per burst */
+	private static final int BURST = 8;
+	/** microseconds between bursts, between small messages and in total */
+	private static final long BURST_INTERVAL = 5000000L;
+	private static final long SMALL_INTERVAL = 20000L;
+	private static final long DURATION = 120000000L;
+
+	@Test
+	public void smallMessageLatency() {
+		long[] unpaced = run(false);
+		long[] paced = run(true);
+		report("all at once", unpaced);
+		report("one at a time", paced);
+		assertTrue(percentile(paced, 99) <= percentile(unpaced, 99));
+	}
+
+	private static void report(String mode, long[] latencies) {
+		System.out.println(String.format("large messages sent %-14s small message latency (ms): p50 %6.1f  p99 %6.1f  max %6.1f",
+				mode + ",", percentile(latencies, 50) / 1000.0, percentile(latencies, 99) / 1000.0,
+				latencies[latencies.length - 1] / 1000.0));
+	}
+
+	private static long percentile(long[] sorted, int p) {
+		return sorted[Math.min(sorted.length - 1, sorted.length * p / 100)];
+	}
+
+	/**
+	 * @return the latencies (µs) of the small messages, sorted
+	 */
+	private static long[] run(boolean paced) {
+		final Connection connection = new Connection();
+		SendPacer<Frame> pacer = new SendPacer<Frame>() {
+			@Override
+			Object transmit(Frame frame) {
+				connection.write(frame);
+				return frame;
+			}
+
+			@Override
+			void failed(Frame frame, Exception e) {
+				throw new IllegalStateException(e);
+			}
+
+			@Override
+			void discard(Frame frame) {
+			}
+
+			@Override
+			long getTimeout() {
+				return 0L;
+			}
+
+			@Override
+			TimingWheel getTimer() {
+				return null;
+			}
+
+			@Override
+			void timedOut(Object frame) {
+			}
+		};
+		long[] latencies = new long[(int) (DURATION / SMALL_INTERVAL)];
+		int done = 0;
+		long nextSmall = 0L;
+		long nextBurst = SMALL_INTERVAL / 2L;
+		long now = 0L;
+		while (nextSmall < DURATION || !connection.queue.isEmpty()) {
+			if (connection.queue.isEmpty())
+				now = Math.max(now, Math.min(nextSmall, nextBurst));
+			while (nextSmall <= now && nextSmall < DURATION) {
+				connection.write(new Frame(SMALL, nextSmall, false));
+				nextSmall += SMALL_INTERVAL;
+			}
+			while (nextBurst <= now && nextBurst < DURATION) {
+				for (int i = 0; i < BURST; i++) {
+					Frame frame = new Frame(LARGE, nextBurst, true);
+					if (paced) {
+						try {
+							pacer.send(frame);
+						} catch (IOException e) {
+							throw new IllegalStateException(e);
+						}
+					} else {
+						connection.write(frame);
+					}
+				}
+				nextBurst += BURST_INTERVAL;
+			}
+			Frame head = connection.queue.peek();
+			if (head == null)
+				continue;
+			long chunk = Math.min(CHUNK, head.remaining);
+			now += chunk / RATE;
+			head.remaining -= chunk;
+			if (head.remaining == 0L) {
+				connection.queue.poll();
+				if (head.large)
+					pacer.done(head);
+				else
+					latencies[done++] = now - head.queuedAt;
+			}
+		}
+		long[] result = Arrays.copyOf(latencies, done);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private static final class Frame {
+		final long queuedAt;
+		final boolean large;
+		long remaining;
+
+		Frame(long size, long queuedAt, boolean large) {
+			this.remaining = size;
+			this.queuedAt = queuedAt;
+			this.large = large;
+		}
+	}
+
+	/**
+	 * Writes the messages in the order handed over.
+	 */
+	private static final class Connection {
+		final ArrayDeque<Frame> queue = new ArrayDeque<Frame>();
+
+		void write(Frame frame) {
+			queue.add(frame);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author tuijldert
+ */
+public class ProgressPolicyTest {
+	/** any time will do, as only differences count */
+	private static final long START = -1000000000L;
+
+	@Test
+	public void allReportsEveryUpdate() {
+		ProgressPolicy policy = ProgressPolicy.ALL;
+		assertTrue(policy.reportsAll());
+		ProgressPolicy.Progress progress = policy.start();
+		assertTrue(policy.report(progress, 1L, false));
+		assertTrue(policy.report(progress, 1L, false));
+		assertTrue(policy.report(progress, 2L, true));
+	}
+
+	@Test
+	public void completionOnly() {
+		ProgressPolicy policy = new ProgressPolicy(0L, 0L, true);
+		assertFalse(policy.reportsAll());
+		ProgressPolicy.Progress progress = policy.start();
+		assertFalse(policy.report(progress, 1000000L, false));
+		assertTrue(policy.report(progress, 1000000L, true));
+	}
+
+	@Test
+	public void coalescesByBytes() {
+		ProgressPolicy policy = new ProgressPolicy(1000L, 0L, false);
+		assertFalse(policy.reportsAll());
+		ProgressPolicy.Progress progress = policy.start();
+		assertFalse(policy.report(progress, 999L, false));
+		assertTrue(policy.report(progress, 1000L, false));
+		assertFalse(policy.report(progress, 1999L, false));
+		assertTrue(policy.report(progress, 2000L, false));
+		// completion is always reported.
+		assertTrue(policy.report(progress, 2001L, true));
+	}
+
+	@Test
+	public void coalescesByTime() {
+		ProgressPolicy policy = new ProgressPolicy(0L, 50L, false);
+		ProgressPolicy.Progress progress = policy.start(START);
+		assertFalse(policy.report(progress, 10L, false, START + ms(49L)));
+		assertTrue(policy.report(progress, 20L, false, START + ms(50L)));
+		assertFalse(policy.report(progress, 30L, false, START + ms(99L)));
+		assertTrue(policy.report(progress, 40L, false, START + ms(100L)));
+		assertTrue(policy.report(progress, 50L, true, START + ms(101L)));
+	}
+
+	/** both thresholds must be reached */
+	@Test
+	public void coalescesByBytesAndTime() {
+		ProgressPolicy policy = new ProgressPolicy(100L, 50L, false);
+		ProgressPolicy.Progress progress = policy.start(START);
+		assertFalse(policy.report(progress, 100L, false, START + ms(49L)));
+		assertFalse(policy.report(progress, 99L, false, START + ms(60L)));
+		assertTrue(policy.report(progress, 100L, false, START + ms(60L)));
+		assertFalse(policy.report(progress, 1000L, false, START + ms(109L)));
+	}
+
+	private static long ms(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.net.msrp.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks how the {@link ReportCorrelator} collapses REPORTs into outcomes,
+ * capturing what it fires instead of firing through an RA. Time is
+ * simulated: timeouts expire when the test moves the clock past them.
+ *
+ * @author tuijldert
+ */
+public class ReportCorrelatorTest {
+	private static final long TIMEOUT = 200L;
+	private static final int OK = 200;
+	private static final int TIMED_OUT = 408;
+
+	private final MsrpActivityHandle handle = new MsrpActivityHandle("session");
+	private final List<String> fired = new ArrayList<String>();
+	private final List<Scheduled> scheduled = new ArrayList<Scheduled>();
+	private boolean active = true;
+	/** the simulated time (ms) */
+	private long clock = 1000L;
+	private TimingWheel wheel;
+	private ReportCorrelator reports;
+
+	@Before
+	public void setUp() {
+		wheel = new TimingWheel(SilentTracer.create(), "test", 10L, 1) {
+			@Override
+			TimingWheel.Timeout schedule(TimingWheel.Task task, long delay) {
+				scheduled.add(new Scheduled(task, clock + delay));
+				return null;
+			}
+		};
+		wheel.stop();
+		reports = new ReportCorrelator(null, wheel) {
+			@Override
+			void fire(MsrpActivityHandle handle, Session session, String messageId, int namespace,
+					int statusCode, String comment) {
+				fired.add(messageId + ":" + statusCode);
+			}
+
+			@Override
+			boolean isActive(MsrpActivityHandle handle) {
+				return active;
+			}
+
+			@Override
+			long now() {
+				return clock;
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		wheel.stop();
+	}
+
+	@Test
+	public void allFiresEveryReport() {
+		reports.setMode(ReportCorrelator.Mode.ALL, TIMEOUT);
+		report("a", OK, 1L, 10L, 20L);
+		report("a", OK, 11L, 20L, 20L);
+		assertEquals(list("a:200", "a:200"), fired);
+		assertEquals(0, reports.getPending());
+	}
+
+	@Test
+	public void deliveredOnceAllBytesReported() {
+		reports.setMode(ReportCorrelator.Mode.MESSAGE, TIMEOUT);
+		report("a", OK, 1L, 100L, 300L);
+		report("a", OK, 201L, 300L, 300L);
+		assertTrue(fired.isEmpty());
+		report("a", OK, 101L, 200L, 300L);
+		assertEquals(list("a:200"), fired);
+		// late reports are not fired again.
+		report("a", OK, 1L, 300L, 300L);
+		assertEquals(list("a:200"), fired);
+	}
+
+	/** the same bytes reported again do not count twice */
+	@Test
+	public void overlappingRangesCountOnce() {
+		reports.setMode(ReportCorrelator.Mode.MESSAGE, TIMEOUT);
+		for (int i = 0; i < 4; i++)
+			report("a", OK, 1L, 2000L, 5000L);
+		report("a", OK, 1500L, 3000L, 5000L);
+		assertTrue(fired.isEmpty());
+		report("a", OK, 2500L, 5000L, 5000L);
+		assertEquals(list("a:200"), fired);
+	}
+
+	@Test
+	public void failsOnFirstNegativeReport() {
+		reports.setMode(ReportCorrelator.Mode.MESSAGE, TIMEOUT);
+		report("a", OK, 1L, 100L, 300L);
+		report("a", 481, 101L, 200L, 300L);
+		report("a", 481, 201L, 300L, 300L);
+		assertEquals(list("a:481"), fired);
+	}
+
+	@Test
+	public void failuresOnly() {
+		reports.setMode(ReportCorrelator.Mode.FAILURES, TIMEOUT);
+		report("a", OK, 1L, 10L, 10L);
+		report("b", 400, 1L, 10L, 10L);
+		assertEquals(list("b:400"), fired);
+	}
+
+	@Test
+	public void silentMessageTimesOut() {
+		reports.setMode(ReportCorrelator.Mode.FAILURES, TIMEOUT);
+		reports.sent(handle, null, "silent", 10L);
+		assertEquals(1, reports.getPending());
+		advance(TIMEOUT - 1L);
+		assertEquals(1, reports.getPending());
+		advance(1L);
+		assertEquals(0, reports.getPending());
+		assertEquals(list("silent:" + TIMED_OUT), fired);
+	}
+
+	/** progress sending a message gives it more time */
+	@Test
+	public void progressKeepsMessageAlive() {
+		reports.setMode(ReportCorrelator.Mode.FAILURES, TIMEOUT);
+		reports.sent(handle, null, "slow", 10L);
+		for (int i = 0; i < 5; i++) {
+			advance(TIMEOUT / 2);
+			reports.sending("slow");
+		}
+		advance(TIMEOUT - 1L);
+		assertTrue(fired.isEmpty());
+		assertEquals(1, reports.getPending());
+		advance(1L);
+		assertEquals(list("slow:" + TIMED_OUT), fired);
+	}
+
+	/** of unknown size, a partly reported message counts as delivered */
+	@Test
+	public void unknownSizeDeliveredOnTimeout() {
+		reports.setMode(ReportCorrelator.Mode.MESSAGE, TIMEOUT);
+		report("a", OK, 1L, 100L, -1L);
+		assertTrue(fired.isEmpty());
+		advance(TIMEOUT);
+		assertEquals(0, reports.getPending());
+		assertEquals(list("a:200"), fired);
+	}
+
+	@Test
+	public void nothingFiredAfterSessionEnded() {
+		reports.setMode(ReportCorrelator.Mode.FAILURES, TIMEOUT);
+		reports.sent(handle, null, "a", 10L);
+		active = false;
+		advance(TIMEOUT);
+		assertEquals(0, reports.getPending());
+		assertTrue(fired.isEmpty());
+	}
+
+	private void report(String messageId, int statusCode, long first, long last, long total) {
+		reports.received(handle, null, messageId, 0, statusCode, null, new long[] { first, last }, total);
+	}
+
+	/**
+	 * Move the clock on, expiring the timeouts due by then.
+	 */
+	private void advance(long millis) {
+		clock += millis;
+		while (true) {
+			Scheduled due = null;
+			for (Scheduled timeout : scheduled) {
+				if (timeout.deadline <= clock && (due == null || timeout.deadline < due.deadline))
+					due = timeout;
+			}
+			if (due == null)
+				return;
+			scheduled.remove(due);
+			due.task.expired(null);
+		}
+	}
+
+	private static final class Scheduled {
+		final TimingWheel.Task task;
+		final long deadline;
+
+		Scheduled(TimingWheel.Task task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+	}
+
+	private static List<String> list(String... items) {
+		List<String> list = new ArrayList<String>();
+		Collections.addAll(list, items);
+		return list;
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author tuijldert
+ */
+public class SendPacerTest {
+	private final List<String> sent = new ArrayList<String>();
+	private final List<String> failed = new ArrayList<String>();
+	private final List<String> discarded = new ArrayList<String>();
+	private final CountDownLatch timedOut = new CountDownLatch(1);
+	private final CountDownLatch bothSent = new CountDownLatch(2);
+	/** message the stack reports done while it is being handed over */
+	private String finishEarly;
+	private long timeout;
+	private TimingWheel wheel;
+
+	private final SendPacer<String> pacer = new SendPacer<String>() {
+		@Override
+		Object transmit(String message) throws IOException {
+			if (message.startsWith("bad"))
+				throw new IOException(message);
+			synchronized (sent) {
+				sent.add(message);
+			}
+			bothSent.countDown();
+			if (message.equals(finishEarly))
+				done(message);
+			return message;
+		}
+
+		@Override
+		void failed(String message, Exception e) {
+			failed.add(message);
+		}
+
+		@Override
+		void discard(String message) {
+			discarded.add(message);
+		}
+
+		@Override
+		long getTimeout() {
+			return timeout;
+		}
+
+		@Override
+		TimingWheel getTimer() {
+			return wheel;
+		}
+
+		@Override
+		void timedOut(Object message) {
+			timedOut.countDown();
+		}
+	};
+
+	@After
+	public void tearDown() {
+		if (wheel != null)
+			wheel.stop();
+	}
+
+	@Test
+	public void sendsOneAtATime() throws Exception {
+		pacer.send("a");
+		pacer.send("b");
+		pacer.send("c");
+		assertEquals(Arrays.asList("a"), sent);
+		pacer.done("b");		// not the one being sent.
+		assertEquals(Arrays.asList("a"), sent);
+		pacer.done("a");
+		assertEquals(Arrays.asList("a", "b"), sent);
+		pacer.done("b");
+		pacer.done("c");
+		pacer.send("d");
+		assertEquals(Arrays.asList("a", "b", "c", "d"), sent);
+	}
+
+	@Test
+	public void doesNotWaitForMessageFinishedEarly() throws Exception {
+		finishEarly = "a";
+		pacer.send("a");
+		pacer.send("b");
+		assertEquals(Arrays.asList("a", "b"), sent);
+	}
+
+	@Test
+	public void reportsHeldBackFailure() throws Exception {
+		pacer.send("a");
+		pacer.send("bad");
+		pacer.send("c");
+		pacer.done("a");
+		assertEquals(Arrays.asList("bad"), failed);
+		assertEquals(Arrays.asList("a", "c"), sent);
+	}
+
+	@Test
+	public void discardsHeldBackOnClear() throws Exception {
+		pacer.send("a");
+		pacer.send("b");
+		pacer.clear();
+		assertEquals(Arrays.asList("b"), discarded);
+		pacer.done("a");
+		assertEquals(Arrays.asList("a"), sent);
+	}
+
+	@Test(timeout = 10000L)
+	public void stopsWaitingForStalledMessage() throws Exception {
+		timeout = 50L;
+		wheel = new TimingWheel(SilentTracer.create(), "test", 10L, 8);
+		pacer.send("a");
+		pacer.send("b");
+		assertTrue(timedOut.await(5L, TimeUnit.SECONDS));
+		assertTrue(bothSent.await(5L, TimeUnit.SECONDS));
+		synchronized (sent) {
+			assertEquals(Arrays.asList("a", "b"), sent);
+		}
+	}
+}
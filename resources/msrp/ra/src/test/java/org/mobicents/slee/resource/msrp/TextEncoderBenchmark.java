@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Bytes allocated per text message sent: the content for the stack as
+ * {@link BasicMsrpSession#sendMessage(CharSequence)} makes it, against
+ * <code>toString().getBytes()</code>, as it was made before.
+ * Not part of the default test run, run it with
+ * <code>mvn test -Dtest=TextEncoderBenchmark</code>. Needs a JVM that
+ * counts the bytes allocated per thread, as HotSpot does.
+ *
+ * @author tuijldert
+ */
+public class TextEncoderBenchmark {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int WARMUP = 200000;
+	private static final int SENDS = 100000;
+
+	/** keeps the content from being optimized away */
+	private static long sink;
+
+	@Test
+	public void allocatedPerSend() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+		Assume.assumeTrue(counter.isThreadAllocatedMemorySupported());
+		counter.setThreadAllocatedMemoryEnabled(true);
+
+		StringBuilder line = new StringBuilder("Hi all, is anyone joining the call at three o'clock?");
+		StringBuilder accented = new StringBuilder("Qu'est-ce qu'on mange ce soir ? Crêpes, gâteau, thé ☺");
+		StringBuilder paragraph = new StringBuilder();
+		while (paragraph.length() < 4000)
+			paragraph.append(line).append(' ');
+		for (CharSequence text : new CharSequence[] { line, accented, paragraph }) {
+			System.out.println(String.format("%5d chars: getBytes %6d bytes, TextEncoder %6d bytes per send",
+					text.length(), allocated(counter, text, false), allocated(counter, text, true)));
+		}
+	}
+
+	private static long allocated(com.sun.management.ThreadMXBean counter, CharSequence text, boolean encoder) {
+		long id = Thread.currentThread().getId();
+		for (int i = 0; i < WARMUP; i++)
+			sink += content(text, encoder).length;
+		long before = counter.getThreadAllocatedBytes(id);
+		for (int i = 0; i < SENDS; i++)
+			sink += content(text, encoder).length;
+		return (counter.getThreadAllocatedBytes(id) - before) / SENDS;
+	}
+
+	private static byte[] content(CharSequence text, boolean encoder) {
+		return encoder ? TextEncoder.toBytes(text) : text.toString().getBytes(UTF8);
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link TextEncoder} against {@link String#getBytes(Charset)}.
+ *
+ * @author tuijldert
+ */
+public class TextEncoderTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void encodesAsString() {
+		check("");
+		check("hello");
+		check("h\u00e9llo w\u00f6rld \u20ac \ud83d\ude00");
+	}
+
+	/** beyond the initial and the largest kept scratch buffer */
+	@Test
+	public void encodesLargeText() {
+		check(repeat("\u00e9a\u20ac", 100));
+		check(repeat("\u20ac", 64 * 1024));
+		check("after a large one");
+	}
+
+	/** like String, a lone surrogate is replaced */
+	@Test
+	public void replacesMalformed() {
+		check("a\ud83db");
+		check("a\ude00");
+	}
+
+	@Test
+	public void encodesCharBufferFromPosition() {
+		CharBuffer text = CharBuffer.wrap("skip: text");
+		text.position(6);
+		TextEncoder encoder = TextEncoder.take();
+		try {
+			assertEquals("text", UTF8.decode(encoder.encode(text)).toString());
+		} finally {
+			encoder.release();
+		}
+		// the text itself is left as it was.
+		assertEquals(6, text.position());
+	}
+
+	/** an encoder taken is not handed out again until released */
+	@Test
+	public void encoderIsTakenExclusively() {
+		TextEncoder first = TextEncoder.take();
+		TextEncoder second = TextEncoder.take();
+		assertNotSame(first, second);
+		first.release();
+		second.release();
+		TextEncoder again = TextEncoder.take();
+		assertSame(first, again);
+		again.release();
+	}
+
+	@Test
+	public void bytesAreNotShared() {
+		byte[] first = TextEncoder.toBytes("first");
+		byte[] second = TextEncoder.toBytes("other");
+		assertArrayEquals("first".getBytes(UTF8), first);
+		assertArrayEquals("other".getBytes(UTF8), second);
+	}
+
+	private static void check(String text) {
+		byte[] expected = text.getBytes(UTF8);
+		assertArrayEquals(expected, TextEncoder.toBytes(text));
+		TextEncoder encoder = TextEncoder.take();
+		try {
+			ByteBuffer encoded = encoder.encode(new StringBuilder(text));
+			byte[] actual = new byte[encoded.remaining()];
+			encoded.get(actual);
+			assertArrayEquals(expected, actual);
+		} finally {
+			encoder.release();
+		}
+	}
+
+	private static String repeat(String text, int times) {
+		StringBuilder repeated = new StringBuilder(text.length() * times);
+		for (int i = 0; i < times; i++)
+			repeated.append(text);
+		return repeated.toString();
+	}
+}
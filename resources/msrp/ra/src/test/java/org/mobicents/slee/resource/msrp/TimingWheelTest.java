@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012 by the @authors tag.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.mobicents.slee.resource.msrp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author tuijldert
+ */
+public class TimingWheelTest {
+	private static final long TICK = 10L;
+
+	private TimingWheel wheel;
+
+	@Before
+	public void setUp() {
+		wheel = new TimingWheel(SilentTracer.create(), "test", TICK, 8);
+	}
+
+	@After
+	public void tearDown() {
+		wheel.stop();
+	}
+
+	@Test(timeout = 10000L)
+	public void expiresNotBeforeDeadline() throws Exception {
+		final CountDownLatch expired = new CountDownLatch(1);
+		final AtomicLong at = new AtomicLong();
+		long start = System.nanoTime();
+		wheel.schedule(new TimingWheel.Task() {
+			public void expired(TimingWheel.Timeout timeout) {
+				at.set(System.nanoTime());
+				expired.countDown();
+			}
+		}, 100L);
+		assertTrue(expired.await(5L, TimeUnit.SECONDS));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(at.get() - start) >= 100L - TICK);
+	}
+
+	/** a delay of many rounds of the (8 bucket) wheel */
+	@Test(timeout = 10000L)
+	public void expiresAfterSeveralRounds() throws Exception {
+		final CountDownLatch expired = new CountDownLatch(1);
+		long start = System.nanoTime();
+		wheel.schedule(new TimingWheel.Task() {
+			public void expired(TimingWheel.Timeout timeout) {
+				expired.countDown();
+			}
+		}, 300L);
+		assertTrue(expired.await(5L, TimeUnit.SECONDS));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300L - TICK);
+	}
+
+	@Test(timeout = 10000L)
+	public void cancelledNeverExpires() throws Exception {
+		final AtomicInteger expired = new AtomicInteger();
+		final CountDownLatch later = new CountDownLatch(1);
+		TimingWheel.Timeout timeout = wheel.schedule(new TimingWheel.Task() {
+			public void expired(TimingWheel.Timeout timeout) {
+				expired.incrementAndGet();
+			}
+		}, 50L);
+		timeout.cancel();
+		assertTrue(timeout.isCancelled());
+		wheel.schedule(new TimingWheel.Task() {
+			public void expired(TimingWheel.Timeout timeout) {
+				later.countDown();
+			}
+		}, 150L);
+		assertTrue(later.await(5L, TimeUnit.SECONDS));
+		assertEquals(0, expired.get());
+	}
+
+	/** a failing task does not stop the wheel */
+	@Test(timeout = 10000L)
+	public void survivesFailingTask() throws Exception {
+		final CountDownLatch expired = new CountDownLatch(1);
+		wheel.schedule(new TimingWheel.Task() {
+			public void expired(TimingWheel.Timeout timeout) {
+				throw new IllegalStateException("test");
+			}
+		}, 0L);
+		wheel.schedule(new TimingWheel.Task() {
+			public void expired(TimingWheel.Timeout timeout) {
+				expired.countDown();
+			}
+		}, 50L);
+		assertTrue(expired.await(5L, TimeUnit.SECONDS));
+	}
+
+	@Test(timeout = 10000L)
+	public void expiresManyConcurrentlyScheduled() throws Exception {
+		final int threads = 4;
+		final int perThread = 1000;
+		final CountDownLatch expired = new CountDownLatch(threads * perThread);
+		final TimingWheel.Task task = new TimingWheel.Task() {
+			public void expired(TimingWheel.Timeout timeout) {
+				expired.countDown();
+			}
+		};
+		Thread[] schedulers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			schedulers[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < perThread; i++)
+						wheel.schedule(task, i % 200);
+				}
+			};
+			schedulers[t].start();
+		}
+		for (Thread thread : schedulers)
+			thread.join();
+		assertTrue(expired.await(5L, TimeUnit.SECONDS));
+	}
+
+	@Test(timeout = 10000L)
+	public void stoppedNeverExpires() throws Exception {
+		final AtomicInteger expired = new AtomicInteger();
+		wheel.schedule(new TimingWheel.Task() {
+			public void expired(TimingWheel.Timeout timeout) {
+				expired.incrementAndGet();
+			}
+		}, 100L);
+		wheel.stop();
+		Thread.sleep(200L);
+		assertFalse(expired.get() > 0);
+	}
+}
@@ -21,6 +21,9 @@
 
 package org.mobicents.slee.resource.msrp;
 
+import java.util.Collection;
+import java.util.List;
+
 import javax.net.msrp.exceptions.ParseException;
 import javax.sdp.SessionDescription;
 
@@ -62,12 +65,53 @@ public interface MsrpResourceAdaptorSbbInterface {
 	public MsrpSession connect(String sessionId) throws ParseException;
 
 	/**
-	 * Create a active (client) MSRP session, secured.
+	 * Create an active (client) MSRP session over TLS.
+	 * <BR>
+	 * The connection is set up in the background; messages sent meanwhile
+	 * are held back until it is, asking for the local SDP waits for it.
+	 * Failing to connect is reported by a
+	 * {@link javax.net.msrp.ConnectionLostEvent} without a session.
 	 * @param sessionId Identifies the session to create
-	 * @param to
-	 * @param username
-	 * @param password
-	 * @return
+	 * @param to the msrps-uri of the peer
+	 * @param username for authentication to a relay: not supported yet, must be null
+	 * @param password for authentication to a relay: not supported yet, must be null
+	 * @return the msrp session created
+	 * @throws ParseException something went wrong
+	 */
+	public MsrpSession connect(String sessionId, String to, String username, String password)
+			throws ParseException;
+
+	/**
+	 * Send the same message to a number of MSRP sessions.
+	 * The content is shared by all sessions: it must not be modified afterwards.
+	 * The call returns once the message is queued for sending on every session.
+	 * @param sessionIds	identify the sessions to send to
+	 * @param contentType	the content type of the message
+	 * @param message		the content
+	 * @return the ids of the sessions the message could not be sent to, empty if none
+	 */
+	public List<String> broadcast(Collection<String> sessionIds, String contentType, byte[] message);
+
+	/**
+	 * Send the same text message to a number of MSRP sessions.
+	 * The text is encoded once, for all sessions.
+	 * @param sessionIds	identify the sessions to send to
+	 * @param message		the text
+	 * @return the ids of the sessions the message could not be sent to, empty if none
+	 */
+	public List<String> broadcast(Collection<String> sessionIds, CharSequence message);
+
+	/**
+	 * Send the same text message, wrapped (e.g. message/cpim), to a number of MSRP sessions.
+	 * The text is encoded once, for all sessions.
+	 * @param sessionIds	identify the sessions to send to
+	 * @param wrapType		the wrapper content type
+	 * @param from			the sender, as stated in the wrapper
+	 * @param to			the recipient, as stated in the wrapper
+	 * @param message		the text
+	 * @return the ids of the sessions the message could not be sent to, empty if none
+	 * @see MsrpSession#sendWrappedMessage(String, String, String, CharSequence)
 	 */
-	public MsrpSession connect(String sessionId, String to, String username, String password);
+	public List<String> broadcastWrappedMessage(Collection<String> sessionIds, String wrapType,
+			String from, String to, CharSequence message);
 }
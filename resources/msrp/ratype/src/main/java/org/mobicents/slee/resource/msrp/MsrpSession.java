@@ -24,6 +24,9 @@ package org.mobicents.slee.resource.msrp;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
 
 import javax.sdp.SdpException;
 import javax.sdp.SessionDescription;
@@ -40,10 +43,20 @@ public interface MsrpSession extends Serializable {
 
 	/**
 	 * Get the current local endpoint {@link SessionDescription} of this session.
-	 * @return the {@link SessionDescription} that can be used in the SDP.
+	 * @return the {@link SessionDescription} that can be used in the SDP,
+	 * a copy the caller is free to modify. Waits for a secured session that
+	 * is still connecting, at most the RA's configured sdp timeout; null if
+	 * that failed or took longer.
 	 */
 	public SessionDescription getLocalSdp();
 
+	/**
+	 * Get the current local endpoint {@link SessionDescription} of this session,
+	 * in its textual form.
+	 * @return the SDP, as it would be sent.
+	 */
+	public String getLocalSdpString();
+
 	/**
 	 * Set the remote endpoint {@link SessionDescription} for this session.
 	 * @param sdp	the {@link SessionDescription}
@@ -72,6 +85,57 @@ public interface MsrpSession extends Serializable {
 	 */
 	public void sendMessage(String contentType, byte[] message);
 
+	/**
+	 * Do an MSRP SEND with the remaining bytes of given buffer as payload.
+	 * <BR>
+	 * The buffer may be direct or read-only and may be shared: its position
+	 * and limit are left untouched, its content should not change until sent.
+	 * Large payloads are streamed without copying them to the heap.
+	 * @param contentType MIME type of the payload
+	 * @param message the payload
+	 * @throws IOException the payload could not be staged for sending
+	 */
+	public void sendMessage(String contentType, ByteBuffer message) throws IOException;
+
+	/**
+	 * Do an MSRP SEND with the content of given file as payload.
+	 * The file is streamed, never loaded as a whole.
+	 * @param contentType MIME type of the payload
+	 * @param file the payload
+	 * @throws IOException the file cannot be read
+	 */
+	public void sendMessage(String contentType, Path file) throws IOException;
+
+	/**
+	 * Do an MSRP SEND for each of the given payloads, in order.
+	 * <BR>
+	 * The messages are handed to the MSRP stack back-to-back: messages sent
+	 * meanwhile on this session from other threads do not get in between.
+	 * Each is still a SEND of its own; whether the stack writes them to the
+	 * connection together is up to the stack. A failing message does not
+	 * stop the others. The buffers are treated as in
+	 * {@link #sendMessage(String, ByteBuffer)}.
+	 * @param contentType MIME type of the payloads
+	 * @param messages the payloads
+	 * @return per message, in the same order: null if it was handed to the
+	 * 			stack (or held back as any other message would be), else the
+	 * 			reason it was not.
+	 */
+	public List<Exception> sendMessages(String contentType, List<? extends ByteBuffer> messages);
+
+	/**
+	 * Set the size from which messages of this session count as large.
+	 * <BR>
+	 * Large messages are sent one at a time: one is held back until the
+	 * previous one has been sent completely. Other messages are sent right
+	 * away, so they need to wait for one large message at most. A held
+	 * back message that cannot be sent once its turn comes is reported by
+	 * a {@link javax.net.msrp.ReportEvent} with status 400 on the activity.
+	 * @param size in bytes; 0 to send all messages right away, -1 to use
+	 * 			the resource adaptor's setting.
+	 */
+	public void setLargeMessageSize(long size);
+
 	/**
 	 * Do an MSRP SEND with the given wrapped message as payload.
 	 * @param wrapType	MIME type of the wrapping.